@@ -0,0 +1,32 @@
+#!/bin/sh
+# Throughput and latency with 1000 concurrent clients, needs wrk (https://github.com/wg/wrk).
+# Start the server once with -Dcities.threads=platform and once with -Dcities.threads=virtual (Java 21), keeping
+# -Dcities.db.poolSize the same, and run this against each:
+#   BASE=http://localhost:8080/api/cities CLIENTS=1000 DURATION=60s sh bench/concurrent-clients.sh
+# The pages use a different population filter per request, so they miss the result cache and reach the database.
+
+BASE=${BASE:-http://localhost:8080/api/cities}
+CLIENTS=${CLIENTS:-1000}
+THREADS=${THREADS:-8}
+DURATION=${DURATION:-60s}
+
+script=$(mktemp)
+trap 'rm -f "$script"' EXIT
+cat > "$script" <<'EOF'
+counter = 0
+request = function()
+    counter = counter + 1
+    return wrk.format("GET", wrk.path .. "?page=0&size=20&population.min=" .. (counter % 100000))
+end
+EOF
+
+run() {
+    name=$1
+    shift
+    echo "== $name"
+    wrk -t"$THREADS" -c"$CLIENTS" -d"$DURATION" --timeout 30s --latency "$@" | grep -E "Requests/sec|Latency|50%|99%|Non-2xx|Socket errors"
+}
+
+run "pages, cache bypassed" -s "$script" "$BASE/all"
+run "distance to the most populated city" "$BASE/distance-to-most-populated"
+run "cities with timezone over 0" "$BASE/timezone-less-than/0?fields=name"
@@ -0,0 +1,40 @@
+#!/bin/sh
+# Database transactions and statements per REST call, read from pg_stat_database / pg_stat_statements.
+# Run once on the old build and once on this one against the same local database:
+#   DB=cities BASE=http://localhost:8080/api/cities N=1000 sh bench/transactions-per-request.sh
+# pg_stat_statements has to be in shared_preload_libraries for the statement count.
+
+DB=${DB:-cities}
+BASE=${BASE:-http://localhost:8080/api/cities}
+N=${N:-1000}
+
+snapshot() {
+    psql -d "$DB" -Atc "SELECT xact_commit + xact_rollback FROM pg_stat_database WHERE datname = current_database()"
+}
+
+statements() {
+    psql -d "$DB" -Atc "SELECT coalesce(sum(calls), 0) FROM pg_stat_statements WHERE dbid = (SELECT oid FROM pg_database WHERE datname = current_database())"
+}
+
+run() {
+    name=$1
+    url=$2
+    psql -d "$DB" -qc "SELECT pg_stat_reset()" >/dev/null
+    psql -d "$DB" -qc "SELECT pg_stat_statements_reset()" >/dev/null 2>&1
+    before=$(snapshot)
+    before_statements=$(statements)
+    start=$(date +%s%N)
+    i=0
+    while [ $i -lt "$N" ]; do
+        curl -s -o /dev/null "$(echo "$url" | sed "s/{i}/$i/")"
+        i=$((i + 1))
+    done
+    end=$(date +%s%N)
+    after=$(snapshot)
+    after_statements=$(statements)
+    echo "$name: $(( (after - before) * 1000 / N ))/1000 transactions, $(( (after_statements - before_statements) * 1000 / N ))/1000 statements, $(( (end - start) / N / 1000 )) us per request"
+}
+
+run "page + count (cache bypassed by a unique filter)" "$BASE/all?page=0&size=20&population.min={i}"
+run "find by id" "$BASE/get-by-id/1"
+run "governors" "$BASE/governors"
@@ -0,0 +1,53 @@
+-- Name/governor search: LIKE on an unindexed table vs. the pg_trgm GIN indexes from schema.sql.
+-- Run against a scratch database: psql -d bench -f bench/trigram-search.sql
+
+\timing on
+
+DROP TABLE IF EXISTS cities_bench;
+CREATE TABLE cities_bench (LIKE cities INCLUDING DEFAULTS INCLUDING CONSTRAINTS);
+
+INSERT INTO cities_bench (name, x, y, creation_date, area, population, establishment_date, capital,
+                          meters_above_sea_level, timezone, car_code, government, governor_name)
+SELECT 'City ' || md5(i::text),
+       (random() * 900)::bigint,
+       (random() * 900)::bigint,
+       DATE '2000-01-01' + (i % 9000),
+       1 + random() * 10000,
+       1 + (random() * 10000000)::bigint,
+       DATE '1500-01-01' + (i % 180000),
+       i % 50 = 0,
+       random() * 3000,
+       (i % 28) - 12,
+       1 + i % 1000,
+       (ARRAY['ARISTOCRACY', 'MATRIARCHY', 'NOOCRACY', 'PATRIARCHY'])[1 + i % 4],
+       'Governor ' || md5((i * 7)::text)
+FROM generate_series(1, 1000000) AS i;
+
+ANALYZE cities_bench;
+
+-- Baseline: the pre-trigram LIKE path, no indexes
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM cities_bench WHERE lower(name) LIKE '%a1b2%' ORDER BY id LIMIT 20;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM cities_bench WHERE lower(governor_name) LIKE '%c3d%';
+
+CREATE INDEX ON cities_bench USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX ON cities_bench USING gin (lower(governor_name) gin_trgm_ops);
+ANALYZE cities_bench;
+
+-- Same predicates, now served by the GIN indexes
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM cities_bench WHERE lower(name) LIKE '%a1b2%' ORDER BY id LIMIT 20;
+
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM cities_bench WHERE lower(governor_name) LIKE '%c3d%';
+
+-- name.search with two terms and sortBy=relevance
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT * FROM cities_bench
+WHERE lower(name) LIKE '%a1b%' ESCAPE '!' AND lower(name) LIKE '%9f%' ESCAPE '!'
+ORDER BY similarity(lower(name), 'a1b 9f') DESC, id
+LIMIT 20;
+
+DROP TABLE cities_bench;
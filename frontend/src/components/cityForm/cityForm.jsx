@@ -51,17 +51,14 @@ const CityForm = ({ city, onSave, onCancel }) => {
     const loadExistingData = async () => {
         setIsLoadingExistingData(true);
         try {
-            const [governors, coordinates] = await Promise.all([
-                cityService.getGovernors(),
-                cityService.getCoordinates()
-            ]);
+            const { facets } = await cityService.getFacets(['governor', 'coordinates', 'timezone', 'carCode']);
 
-            const timezones = [...new Set(coordinates.map(coord => coord.timezone))].sort((a, b) => a - b);
-            const carCodes = [...new Set(coordinates.map(coord => coord.carCode).filter(code => code !== null))].sort((a, b) => a - b);
+            const timezones = facets.timezone.map(f => f.value).sort((a, b) => a - b);
+            const carCodes = facets.carCode.map(f => f.value).filter(code => code !== null).sort((a, b) => a - b);
 
             setExistingData({
-                governors: governors.map(g => g.name).filter(name => name && name.trim()),
-                coordinates: coordinates,
+                governors: facets.governor.map(f => f.value).filter(name => name && name.trim()),
+                coordinates: facets.coordinates.map(f => f.value),
                 timezones,
                 carCodes
             });
@@ -39,7 +39,12 @@ const CityList = () => {
     const [currentPage, setCurrentPage] = useState(0);
     const [itemsPerPage] = useState(5);
     const ws = useRef(null);
+    const filtersRef = useRef(filters);
     const filterTimeoutRef = useRef(null);
+    const streamRef = useRef({ epoch: null, lastSeq: 0 });
+    const reconnectAttemptsRef = useRef(0);
+    const reconnectTimeoutRef = useRef(null);
+    const unmountedRef = useRef(false);
 
     const goToSpecialFunctions = () => {
         navigate('/special-functions');
@@ -47,11 +52,29 @@ const CityList = () => {
 
     useEffect(() => {
         fetchCities();
+        connect();
 
+        return () => {
+            unmountedRef.current = true;
+            clearTimeout(reconnectTimeoutRef.current);
+
+            if (ws.current && ws.current.readyState === WebSocket.OPEN) {
+                ws.current.close(1000, 'Component unmounting');
+            }
+
+            if (filterTimeoutRef.current) {
+                clearTimeout(filterTimeoutRef.current);
+            }
+        };
+    }, []);
+
+    const connect = () => {
         ws.current = new WebSocket(`/ws/cities`);
 
         ws.current.onopen = () => {
             console.log('WebSocket connected');
+            reconnectAttemptsRef.current = 0;
+            subscribe(filtersRef.current, true);
         };
 
         ws.current.onmessage = (event) => {
@@ -59,9 +82,30 @@ const CityList = () => {
                 const data = JSON.parse(event.data);
                 console.log('WebSocket message received:', data);
 
-                if (data.type === 'CITY_ADDED' || data.type === 'CITY_UPDATED' || data.type === 'CITY_DELETED') {
+                if (data.type === 'SUBSCRIBED' || data.type === 'RELOAD') {
+                    const epochChanged = streamRef.current.epoch && streamRef.current.epoch !== data.data.epoch;
+                    streamRef.current = { epoch: data.data.epoch, lastSeq: data.seq };
+                    if (data.type === 'RELOAD' || epochChanged) {
+                        fetchCities(true);
+                    }
+                    return;
+                }
+
+                if (data.type !== 'BATCH') {
+                    return;
+                }
+
+                // replayed and live frames can overlap right after a resume
+                const events = data.data.filter(e => e.seq > streamRef.current.lastSeq);
+                if (events.length === 0) {
+                    return;
+                }
+                streamRef.current.lastSeq = events[events.length - 1].seq;
+
+                const changeTypes = ['CITY_ADDED', 'CITY_UPDATED', 'CITY_DELETED', 'CITIES_IMPORTED', 'CITIES_UPDATED', 'CITIES_DELETED', 'CITIES_CHANGED'];
+                if (events.some(e => changeTypes.includes(e.type))) {
                     console.log('WebSocket event detected, fetching cities...');
-                    fetchCities();
+                    fetchCities(true);
                 }
             } catch (error) {
                 console.error('Error parsing WebSocket message:', error);
@@ -74,19 +118,31 @@ const CityList = () => {
 
         ws.current.onclose = (event) => {
             console.log('WebSocket disconnected:', event.code, event.reason);
+            if (unmountedRef.current) {
+                return;
+            }
+            // jittered backoff so a redeploy does not bring every client back in the same instant
+            const attempt = reconnectAttemptsRef.current++;
+            const delay = Math.min(30000, 500 * 2 ** attempt) * (0.5 + Math.random() / 2);
+            reconnectTimeoutRef.current = setTimeout(connect, delay);
         };
+    };
 
-
-        return () => {
-            if (ws.current && ws.current.readyState === WebSocket.OPEN) {
-                ws.current.close(1000, 'Component unmounting');
+    const subscribe = (currentFilters, resume = false) => {
+        if (ws.current && ws.current.readyState === WebSocket.OPEN) {
+            const message = { type: 'SUBSCRIBE', filters: cityService.toFilterParams(currentFilters) };
+            if (resume && streamRef.current.epoch) {
+                message.epoch = streamRef.current.epoch;
+                message.lastSeq = streamRef.current.lastSeq;
             }
+            ws.current.send(JSON.stringify(message));
+        }
+    };
 
-            if (filterTimeoutRef.current) {
-                clearTimeout(filterTimeoutRef.current);
-            }
-        };
-    }, []);
+    useEffect(() => {
+        filtersRef.current = filters;
+        subscribe(filters);
+    }, [JSON.stringify(filters)]);
 
     const fetchCities = async (silent = false) => {
         try {
@@ -84,20 +84,7 @@ class CityService {
                 sortDirection: sortDirection
             });
 
-            if (filters.id) params.append('idFilter', filters.id);
-            if (filters.name) params.append('nameFilter', filters.name);
-            if (filters.coordinatesX) params.append('coordinatesXFilter', filters.coordinatesX);
-            if (filters.coordinatesY) params.append('coordinatesYFilter', filters.coordinatesY);
-            if (filters.creationDate) params.append('creationDateFilter', filters.creationDate);
-            if (filters.area) params.append('areaFilter', filters.area);
-            if (filters.population) params.append('populationFilter', filters.population);
-            if (filters.establishmentDate) params.append('establishmentDateFilter', filters.establishmentDate);
-            if (filters.capital) params.append('capitalFilter', filters.capital);
-            if (filters.metersAboveSeaLevel) params.append('metersAboveSeaLevelFilter', filters.metersAboveSeaLevel);
-            if (filters.timezone) params.append('timezoneFilter', filters.timezone);
-            if (filters.carCode) params.append('carCodeFilter', filters.carCode);
-            if (filters.government) params.append('governmentFilter', filters.government);
-            if (filters.governor) params.append('governorFilter', filters.governor);
+            Object.entries(this.toFilterParams(filters)).forEach(([key, value]) => params.append(key, value));
 
             return await this.request(`/all?${params}`);
         } catch (error) {
@@ -105,6 +92,14 @@ class CityService {
         }
     }
 
+    toFilterParams(filters = {}) {
+        const params = {};
+        Object.entries(filters).forEach(([field, value]) => {
+            if (value) params[`${field}Filter`] = value;
+        });
+        return params;
+    }
+
     async getCityById(id) {
         try {
             if (!id || id <= 0) {
@@ -154,6 +149,44 @@ class CityService {
         }
     }
 
+    async patchCity(id, changes) {
+        try {
+            if (!id || id <= 0) {
+                throw new Error('Invalid city ID provided');
+            }
+
+            return await this.request(`/${id}`, {
+                method: 'PATCH',
+                body: changes,
+            });
+        } catch (error) {
+            throw new Error(`Failed to update city: ${error.message}`);
+        }
+    }
+
+    async updateCities(filters, changes) {
+        try {
+            const params = new URLSearchParams(this.toFilterParams(filters));
+            return await this.request(`/bulk?${params}`, {
+                method: 'PATCH',
+                body: changes,
+            });
+        } catch (error) {
+            throw new Error(`Failed to update cities: ${error.message}`);
+        }
+    }
+
+    async deleteCities(filters) {
+        try {
+            const params = new URLSearchParams(this.toFilterParams(filters));
+            return await this.request(`/bulk?${params}`, {
+                method: 'DELETE',
+            });
+        } catch (error) {
+            throw new Error(`Failed to delete cities: ${error.message}`);
+        }
+    }
+
     async deleteCity(id) {
         try {
             if (!id || id <= 0) {
@@ -212,6 +245,15 @@ class CityService {
         }
     }
 
+    async getFacets(facets, filters = {}) {
+        try {
+            const params = new URLSearchParams({ facets: facets.join(','), ...this.toFilterParams(filters) });
+            return await this.request(`/facets?${params}`);
+        } catch (error) {
+            throw new Error(`Failed to fetch facets: ${error.message}`);
+        }
+    }
+
     async getGovernors() {
         try {
             return await this.request('/governors');
@@ -0,0 +1,113 @@
+package com.example.bench;
+
+import com.example.config.SchemaMigration;
+import com.example.repository.CityRepository;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.SessionFactory;
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.orm.hibernate5.LocalSessionFactoryBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A local PostgreSQL database seeded with synthetic cities, shared by the benchmarks that need real queries.
+ * Point it somewhere disposable with -Dbench.db.url, the cities table is truncated whenever the size changes.
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+    private final HikariDataSource dataSource;
+    private final SessionFactory sessionFactory;
+    private final TransactionTemplate readOnly;
+    private final CityRepository repository;
+
+    private BenchmarkDatabase(int rows, Map<String, String> hibernateProperties) throws SQLException {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(System.getProperty("bench.db.url", "jdbc:postgresql://localhost:5432/cities_bench"));
+        config.setUsername(System.getProperty("bench.db.user", "postgres"));
+        config.setPassword(System.getProperty("bench.db.password", ""));
+        config.setMaximumPoolSize(4);
+        this.dataSource = new HikariDataSource(config);
+
+        SchemaMigration.apply(dataSource);
+        seed(rows);
+
+        LocalSessionFactoryBuilder builder = new LocalSessionFactoryBuilder(dataSource);
+        builder.configure("hibernate.cfg.xml");
+        builder.setProperty("hibernate.show_sql", "false");
+        builder.setProperty("hibernate.format_sql", "false");
+        hibernateProperties.forEach(builder::setProperty);
+        this.sessionFactory = builder.buildSessionFactory();
+
+        HibernateTransactionManager transactionManager = new HibernateTransactionManager(sessionFactory);
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.repository = new CityRepository(sessionFactory);
+    }
+
+    public static BenchmarkDatabase open(int rows) {
+        return open(rows, Map.of());
+    }
+
+    /**
+     * The properties override the ones of hibernate.cfg.xml, for benchmarks comparing Hibernate settings.
+     */
+    public static BenchmarkDatabase open(int rows, Map<String, String> hibernateProperties) {
+        try {
+            return new BenchmarkDatabase(rows, hibernateProperties);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Benchmark database is not available: " + e.getMessage(), e);
+        }
+    }
+
+    public CityRepository getRepository() {
+        return repository;
+    }
+
+    public SessionFactory getSessionFactory() {
+        return sessionFactory;
+    }
+
+    /**
+     * Runs the call the way a read-only service method would, inside one Spring-managed transaction.
+     */
+    public <T> T read(Supplier<T> call) {
+        return readOnly.execute(status -> call.get());
+    }
+
+    @Override
+    public void close() {
+        sessionFactory.close();
+        dataSource.close();
+    }
+
+    private void seed(int rows) throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            try (ResultSet count = statement.executeQuery("SELECT count(*) FROM cities")) {
+                count.next();
+                if (count.getLong(1) == rows) {
+                    return;
+                }
+            }
+
+            statement.execute("TRUNCATE cities");
+            statement.execute("INSERT INTO cities (id, name, x, y, creation_date, area, population, establishment_date, "
+                    + "capital, meters_above_sea_level, timezone, car_code, government, governor_name) "
+                    + "SELECT i, 'City ' || md5(i::text), (random() * 900)::bigint, (random() * 900)::bigint, "
+                    + "DATE '2000-01-01' + (i % 9000), 1 + random() * 10000, 1 + (random() * 10000000)::bigint, "
+                    + "CASE WHEN i % 10 = 0 THEN NULL ELSE DATE '1500-01-01' + (i % 180000) END, i % 50 = 0, "
+                    + "random() * 3000, (i % 28) - 12, CASE WHEN i % 7 = 0 THEN NULL ELSE 1 + i % 1000 END, "
+                    + "(ARRAY['ARISTOCRACY', 'MATRIARCHY', 'NOOCRACY', 'PATRIARCHY'])[1 + i % 4], "
+                    + "'Governor ' || md5((i * 7)::text) "
+                    + "FROM generate_series(1, " + rows + ") AS i");
+            statement.execute("SELECT setval('cities_id_seq', " + rows + " + 50)");
+            statement.execute("ANALYZE cities");
+        }
+    }
+}
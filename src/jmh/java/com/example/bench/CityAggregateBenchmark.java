@@ -0,0 +1,79 @@
+package com.example.bench;
+
+import com.example.repository.CityRepository;
+import com.example.service.CityAggregateStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The special-function aggregates, computed by the original repository queries and served from the incrementally
+ * maintained store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CityAggregateBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private BenchmarkDatabase database;
+    private CityRepository repository;
+    private CityAggregateStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.open(rows);
+        repository = database.getRepository();
+        store = new CityAggregateStore(repository);
+        database.read(() -> {
+            store.seed();
+            return null;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Double queryAverageCarCode() {
+        return database.read(repository::getAverageCarCode);
+    }
+
+    @Benchmark
+    public Double querySumOfTimezones() {
+        return database.read(repository::getSumOfTimezones);
+    }
+
+    @Benchmark
+    public Double queryDistanceToMostPopulated() {
+        return database.read(repository::calculateDistanceToTheMostPopulatedCity);
+    }
+
+    @Benchmark
+    public Double queryDistanceToNewest() {
+        return database.read(repository::calculateDistanceToNewestCity);
+    }
+
+    @Benchmark
+    public Double storeAverageCarCode() {
+        return store.getAverageCarCode();
+    }
+
+    @Benchmark
+    public Double storeDistanceToMostPopulated() {
+        return store.getDistanceToMostPopulated();
+    }
+}
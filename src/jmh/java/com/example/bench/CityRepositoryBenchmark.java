@@ -0,0 +1,101 @@
+package com.example.bench;
+
+import com.example.model.City;
+import com.example.repository.CityField;
+import com.example.repository.CityFilter;
+import com.example.repository.CityProjection;
+import com.example.repository.CityRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CityRepositoryBenchmark {
+    private static final Map<String, Map<String, String>> FILTERS = Map.of(
+            "none", Map.of(),
+            "nameLike", Map.of("nameFilter", "ab"),
+            "governmentAndCapital", Map.of("government.eq", "PATRIARCHY", "capital.eq", "true"),
+            "populationRange", Map.of("population.min", "1000000", "population.max", "2000000"),
+            "search", Map.of("name.search", "ab 12"));
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"none", "nameLike", "governmentAndCapital", "populationRange", "search"})
+    public String filter;
+
+    @Param({"id", "population", "name"})
+    public String sortBy;
+
+    private BenchmarkDatabase database;
+    private CityRepository repository;
+    private CityFilter cityFilter;
+    private final CityProjection summary = CityProjection.summary();
+    private CityProjection names;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.open(rows);
+        repository = database.getRepository();
+        cityFilter = CityFilter.fromParams(FILTERS.get(filter));
+        names = CityProjection.fromKeys("name", CityField.fromKey(sortBy));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public CityFilter buildFilter() {
+        return CityFilter.fromParams(FILTERS.get(filter));
+    }
+
+    @Benchmark
+    public List<City> findAll() {
+        List<City> cities = new ArrayList<>();
+        repository.streamWithFiltersAndSort(cityFilter, sortBy, "asc", 1000, cities::add);
+        return cities;
+    }
+
+    @Benchmark
+    public List<City> findFirstPage() {
+        return database.read(() -> repository.findPageWithFiltersAndSort(cityFilter, sortBy, "asc", 0, 20));
+    }
+
+    @Benchmark
+    public List<Object> findFirstPageSummaries() {
+        return database.read(() -> repository.findPageWithFiltersAndSort(cityFilter, sortBy, "asc", 0, 20,
+                summary));
+    }
+
+    @Benchmark
+    public List<Object> findFirstPageNames() {
+        return database.read(() -> repository.findPageWithFiltersAndSort(cityFilter, sortBy, "asc", 0, 20,
+                names));
+    }
+
+    @Benchmark
+    public List<City> findDeepPage() {
+        return database.read(() -> repository.findPageWithFiltersAndSort(cityFilter, sortBy, "asc", 200, 20));
+    }
+
+    @Benchmark
+    public long count() {
+        return database.read(() -> repository.countWithFilters(cityFilter));
+    }
+}
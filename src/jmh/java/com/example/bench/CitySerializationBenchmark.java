@@ -0,0 +1,75 @@
+package com.example.bench;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.model.Government;
+import com.example.model.Human;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes a page of cities wrapped the way CityController.getAllCities returns it, with a mapper configured like
+ * the one Spring MVC builds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CitySerializationBenchmark {
+
+    @Param({"5", "20", "100", "1000"})
+    public int pageSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private Map<String, Object> response;
+
+    @Setup
+    public void setUp() {
+        response = new HashMap<>();
+        response.put("cities", cities(pageSize));
+        response.put("currentPage", 0);
+        response.put("totalItems", 1_000_000L);
+        response.put("totalPages", 1_000_000 / pageSize);
+        response.put("pageSize", pageSize);
+        response.put("filters", Map.of());
+        response.put("sortBy", "id");
+        response.put("sortDirection", "asc");
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    public static List<City> cities(int count) {
+        Government[] governments = Government.values();
+        List<City> cities = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            cities.add(new City((long) i, "City " + Integer.toHexString(i * 7919),
+                    new Coordinates((long) (i % 900), (long) (i * 31 % 900)),
+                    LocalDate.of(2000, 1, 1).plusDays(i % 9000), 1.0 + i % 10_000, 1L + i * 997L % 10_000_000,
+                    i % 10 == 0 ? null : LocalDate.of(1500, 1, 1).plusDays(i % 180_000), i % 50 == 0,
+                    (float) (i % 3000), i % 28 - 12, i % 7 == 0 ? null : 1 + i % 1000,
+                    governments[i % governments.length], new Human("Governor " + i), 0L));
+        }
+        return cities;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.bench;
+
+import com.example.model.City;
+import com.example.repository.CityFilter;
+import com.example.repository.CityRepository;
+import org.hibernate.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a filtered request costs before any row is read: the filter is parsed from parameters that arrive in a
+ * different order every time, the HQL is rendered and Hibernate turns it into SQL, with and without its plan cache.
+ * prepare renders the statement on every call, firstPage and count take it from the repository's statement cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueryPreparationBenchmark {
+    private static final List<Map<String, String>> REQUESTS = List.of(
+            parameters("government.eq", "PATRIARCHY", "population.min", "1000000", "timezone.max", "3"),
+            parameters("population.min", "1000000", "timezone.max", "3", "government.eq", "PATRIARCHY"),
+            parameters("timezone.max", "3", "government.eq", "PATRIARCHY", "population.min", "1000000"),
+            parameters("government.in", "PATRIARCHY,NOOCRACY", "capital.eq", "true"),
+            parameters("capital.eq", "true", "government.in", "PATRIARCHY,NOOCRACY,MATRIARCHY"),
+            parameters("name.search", "an", "timezone.max", "3"),
+            parameters("timezone.max", "3", "name.search", "an ber"),
+            parameters("name.search", "an ber lin", "timezone.max", "3"));
+
+    @Param({"true", "false"})
+    public String planCache;
+
+    private BenchmarkDatabase database;
+    private CityRepository repository;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.open(10000, Map.of("hibernate.query.plan_cache_enabled", planCache));
+        repository = database.getRepository();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Query<City> prepare() {
+        CityFilter filter = CityFilter.fromParams(nextRequest());
+        return database.read(() -> {
+            StringBuilder hql = new StringBuilder("FROM City c WHERE 1=1");
+            Map<String, Object> params = new HashMap<>();
+            filter.appendTo(hql, params);
+            hql.append(" ORDER BY c.id ASC");
+
+            Query<City> query = database.getSessionFactory().getCurrentSession()
+                    .createQuery(hql.toString(), City.class);
+            params.forEach((name, value) -> {
+                if (value instanceof Collection<?> values) {
+                    query.setParameterList(name, values);
+                } else {
+                    query.setParameter(name, value);
+                }
+            });
+            return query;
+        });
+    }
+
+    @Benchmark
+    public List<City> firstPage() {
+        CityFilter filter = CityFilter.fromParams(nextRequest());
+        return database.read(() -> repository.findPageWithFiltersAndSort(filter, "id", "asc", 0, 20));
+    }
+
+    @Benchmark
+    public long count() {
+        CityFilter filter = CityFilter.fromParams(nextRequest());
+        return database.read(() -> repository.countWithFilters(filter));
+    }
+
+    private Map<String, String> nextRequest() {
+        next = (next + 1) % REQUESTS.size();
+        return REQUESTS.get(next);
+    }
+
+    private static Map<String, String> parameters(String... keysAndValues) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            parameters.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.websocket;
+
+import com.example.bench.CitySerializationBenchmark;
+import com.example.model.City;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One coalescing window of city changes, from broadcastCityChange until every session has been handed its frame.
+ * Sessions are in memory and only count what they are sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CityBroadcastBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int sessions;
+
+    @Param({"1", "50"})
+    public int eventsPerWindow;
+
+    private CityWebSocketHandler handler;
+    private List<City> cities;
+    private final AtomicLong framesSent = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        handler = new CityWebSocketHandler();
+        for (int i = 0; i < sessions; i++) {
+            handler.afterConnectionEstablished(new CountingSession("bench-" + i, framesSent));
+        }
+        cities = CitySerializationBenchmark.cities(eventsPerWindow);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        handler.destroy();
+    }
+
+    @Benchmark
+    public long broadcastWindow() {
+        long target = framesSent.get() + sessions;
+        for (City city : cities) {
+            handler.broadcastCityChange("CITY_UPDATED", city.getId(), city, city);
+        }
+        handler.flush();
+        while (framesSent.get() < target) {
+            Thread.onSpinWait();
+        }
+        return framesSent.get();
+    }
+
+    private static final class CountingSession implements WebSocketSession {
+        private final String id;
+        private final AtomicLong framesSent;
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        private CountingSession(String id, AtomicLong framesSent) {
+            this.id = id;
+            this.framesSent = framesSent;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            framesSent.incrementAndGet();
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.config;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the API responses with gzip or deflate, whichever the client accepts first. Bodies are held back until
+ * they pass -Dcities.compression.minSize bytes (1024 by default), smaller ones are sent as they are.
+ */
+public class CompressionFilter implements Filter {
+    private static final int MIN_SIZE = Integer.getInteger("cities.compression.minSize", 1024);
+    private static final String RESPONSE_ATTRIBUTE = CompressionFilter.class.getName() + ".response";
+
+    /**
+     * The encoding a response to the Accept-Encoding header will use if it is large enough, null for none.
+     */
+    public static String encodingFor(String accepted) {
+        if (accepted == null) {
+            return null;
+        }
+        for (String candidate : accepted.split(",")) {
+            String[] parts = candidate.trim().split(";");
+            String coding = parts[0].trim().toLowerCase();
+            boolean refused = parts.length > 1 && parts[1].trim().replace(" ", "").matches("q=0(\\.0*)?");
+            if (!refused && (coding.equals("gzip") || coding.equals("deflate"))) {
+                return coding;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        CompressingResponse started = (CompressingResponse) request.getAttribute(RESPONSE_ATTRIBUTE);
+        if (started != null) {
+            // the dispatch that writes the result of an asynchronous handler, already wrapped by the first one
+            chain.doFilter(request, response);
+            finishUnlessAsync(request, started);
+            return;
+        }
+
+        String encoding = encodingFor(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || "HEAD".equals(httpRequest.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        CompressingResponse compressing = new CompressingResponse(httpResponse, encoding);
+        request.setAttribute(RESPONSE_ATTRIBUTE, compressing);
+        try {
+            chain.doFilter(request, compressing);
+        } finally {
+            finishUnlessAsync(request, compressing);
+        }
+    }
+
+    private static void finishUnlessAsync(ServletRequest request, CompressingResponse response) throws IOException {
+        if (!request.isAsyncStarted()) {
+            response.finish();
+        }
+    }
+
+    private static class CompressingResponse extends HttpServletResponseWrapper {
+        private final HttpServletResponse response;
+        private final String encoding;
+        private CompressingStream stream;
+        private PrintWriter writer;
+
+        CompressingResponse(HttpServletResponse response, String encoding) {
+            super(response);
+            this.response = response;
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            if (stream == null) {
+                stream = new CompressingStream(this);
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                stream = new CompressingStream(this);
+                writer = new PrintWriter(new OutputStreamWriter(stream, Charset.forName(getCharacterEncoding())));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            // the length of the compressed body is not known yet, the buffered one sets its own
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null) {
+                stream.flush();
+            }
+            if (stream == null || stream.compressed != null) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            stream = null;
+            writer = null;
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            if (stream != null && stream.compressed == null) {
+                stream.buffer.reset();
+            }
+        }
+
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null) {
+                stream.close();
+            }
+        }
+
+        void sendUncompressed(ByteArrayOutputStream body) throws IOException {
+            if (!response.isCommitted()) {
+                response.setContentLength(body.size());
+            }
+            body.writeTo(response.getOutputStream());
+        }
+
+        OutputStream startCompression() throws IOException {
+            if (response.isCommitted() || response.containsHeader("Content-Encoding")) {
+                return response.getOutputStream();
+            }
+            response.setHeader("Content-Encoding", encoding);
+            if (encoding.equals("gzip")) {
+                return new GZIPOutputStream(response.getOutputStream(), 8192, true);
+            }
+            return new DeflaterOutputStream(response.getOutputStream(), new Deflater(), 8192, true) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+    }
+
+    private static class CompressingStream extends ServletOutputStream {
+        private final CompressingResponse response;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private OutputStream compressed;
+        private boolean closed;
+
+        CompressingStream(CompressingResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("The response has already been written");
+            }
+            if (compressed == null) {
+                buffer.write(bytes, offset, length);
+                if (buffer.size() >= MIN_SIZE) {
+                    compressed = response.startCompression();
+                    buffer.writeTo(compressed);
+                    buffer.reset();
+                }
+                return;
+            }
+            compressed.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // a small body may still be sent as it is, it is held back until it grows or the response ends
+            if (compressed != null) {
+                compressed.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressed != null) {
+                compressed.close();
+            } else {
+                response.sendUncompressed(buffer);
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            throw new UnsupportedOperationException("Compressed responses are written blocking");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.config;
+
+import com.example.event.CityEventBus;
+import com.example.event.InProcessCityEventBus;
+import com.example.event.PostgresCityEventBus;
+import com.example.repository.CityRepository;
+import org.hibernate.SessionFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class EventBusConfig {
+
+    @Bean
+    public CityEventBus cityEventBus(SessionFactory sessionFactory, CityRepository cityRepository) {
+        String type = System.getProperty("cities.events.bus", "local");
+        switch (type.toLowerCase()) {
+            case "local":
+                return new InProcessCityEventBus();
+            case "postgres":
+                return new PostgresCityEventBus(sessionFactory, cityRepository);
+            default:
+                throw new IllegalArgumentException("Unknown cities.events.bus: " + type);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.config;
+
+import com.example.repository.DatabaseConcurrencyLimiter;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.annotation.Transactional;
+
+@Configuration
+public class ExecutionConfig {
+    private static final String THREADS = System.getProperty("cities.threads", "platform");
+
+    /**
+     * Runs the asynchronous controller methods, on a fixed pool of -Dcities.requestThreads platform threads or, with
+     * -Dcities.threads=virtual on a Java 21 runtime, on a new virtual thread each.
+     */
+    @Bean
+    public AsyncTaskExecutor requestExecutor() {
+        switch (THREADS.toLowerCase()) {
+            case "platform":
+                int threads = Integer.getInteger("cities.requestThreads", 64);
+                ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+                pool.setThreadNamePrefix("city-request-");
+                pool.setCorePoolSize(threads);
+                pool.setMaxPoolSize(threads);
+                pool.setQueueCapacity(Integer.getInteger("cities.requestQueue", 10_000));
+                return pool;
+            case "virtual":
+                SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("city-request-");
+                try {
+                    executor.setVirtualThreads(true);
+                } catch (UnsupportedOperationException e) {
+                    throw new IllegalStateException("cities.threads=virtual needs a Java 21 runtime, this is "
+                            + Runtime.version(), e);
+                }
+                return executor;
+            default:
+                throw new IllegalArgumentException("Unknown cities.threads: " + THREADS);
+        }
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public DatabaseConcurrencyLimiter databaseConcurrencyLimiter() {
+        // the LISTEN connection of the event bus and its NOTIFYs borrow from the pool outside the limiter, leave
+        // them two connections so a saturated limiter cannot make them wait for the pool
+        int poolSize = Integer.getInteger("cities.db.poolSize", 10);
+        return new DatabaseConcurrencyLimiter(
+                Integer.getInteger("cities.db.maxConcurrency", Math.max(1, poolSize - 2)),
+                Long.getLong("cities.db.acquireTimeoutMs", 30_000));
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public Advisor databaseConcurrencyAdvisor(DatabaseConcurrencyLimiter limiter) {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+                new ComposablePointcut(AnnotationMatchingPointcut.forClassAnnotation(Transactional.class))
+                        .union(AnnotationMatchingPointcut.forMethodAnnotation(Transactional.class)),
+                limiter);
+        // outside the transaction advice, a call waiting here holds no connection yet
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return advisor;
+    }
+}
@@ -1,36 +1,116 @@
 package com.example.config;
 
+import com.example.metrics.SlowQueryLog;
+import com.example.metrics.StartupTimings;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.hibernate.SessionFactory;
-import org.hibernate.boot.Metadata;
-import org.hibernate.boot.MetadataSources;
-import org.hibernate.boot.registry.StandardServiceRegistry;
-import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.JndiDataSourceLookup;
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.orm.hibernate5.LocalSessionFactoryBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.sql.DataSource;
 
 @Configuration
-public class HibernateConfig {
+@EnableTransactionManagement
+public class HibernateConfig implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(HibernateConfig.class);
+    private static final String DATASOURCE = System.getProperty("cities.datasource", "jndi");
+    private static final String JNDI_NAME = System.getProperty("cities.datasource.jndiName", "java:/jdbc/MyDS");
+    // the hibernate_* series on /metrics, they cost some bookkeeping on every statement so they are off by default
+    private static final boolean STATISTICS = Boolean.getBoolean("cities.hibernate.statistics");
+
+    private HikariDataSource pool;
+
+    // the container owns a JNDI data source, so Spring must not try to close it on shutdown
+    @Bean(destroyMethod = "")
+    public DataSource dataSource() {
+        switch (DATASOURCE.toLowerCase()) {
+            case "jndi":
+                return new JndiDataSourceLookup().getDataSource(JNDI_NAME);
+            case "pooled":
+                pool = new HikariDataSource(poolConfig());
+                return pool;
+            default:
+                throw new IllegalArgumentException("Unknown cities.datasource: " + DATASOURCE);
+        }
+    }
 
     @Bean
-    public SessionFactory sessionFactory() {
+    public SessionFactory sessionFactory(DataSource dataSource) {
         try {
-            StandardServiceRegistry standardRegistry = new StandardServiceRegistryBuilder()
-                    .configure("hibernate.cfg.xml")
-                    .build();
-
-            Metadata metadata = new MetadataSources(standardRegistry)
-                    .addAnnotatedClass(com.example.model.City.class)
-                    .addAnnotatedClass(com.example.model.Coordinates.class)
-                    .addAnnotatedClass(com.example.model.Government.class)
-                    .addAnnotatedClass(com.example.model.Human.class)
-                    .getMetadataBuilder()
-                    .build();
+            long start = System.nanoTime();
+            SchemaMigration.apply(dataSource);
+            StartupTimings.record("schema.sql applied", System.nanoTime() - start);
 
-            return metadata.getSessionFactoryBuilder().build();
+            start = System.nanoTime();
+            // the builder wires Hibernate's current session to Spring's transactions
+            // connections are only taken from the pool once a statement runs, so cache hits inside a transaction
+            // never borrow one
+            LocalSessionFactoryBuilder builder = new LocalSessionFactoryBuilder(new LazyConnectionDataSourceProxy(dataSource));
+            builder.configure("hibernate.cfg.xml");
+            StartupTimings.record("hibernate.cfg.xml read", System.nanoTime() - start);
+            // statements slower than the repository's slow-query threshold are also logged with their SQL
+            builder.setProperty(AvailableSettings.LOG_SLOW_QUERY, String.valueOf(SlowQueryLog.THRESHOLD_MS));
+            builder.setProperty(AvailableSettings.GENERATE_STATISTICS, String.valueOf(STATISTICS));
+            if (dataSource instanceof HikariDataSource) {
+                // the pool hands out connections with auto-commit already off, saving a round trip per transaction
+                builder.setProperty(AvailableSettings.CONNECTION_PROVIDER_DISABLES_AUTOCOMMIT, "true");
+            }
+            builder.addAnnotatedClasses(
+                    com.example.model.City.class,
+                    com.example.model.Coordinates.class,
+                    com.example.model.Government.class,
+                    com.example.model.Human.class);
+            start = System.nanoTime();
+            SessionFactory sessionFactory = builder.buildSessionFactory();
+            StartupTimings.record("hibernate metadata from City.hbm.xml and session factory built",
+                    System.nanoTime() - start);
+            return sessionFactory;
 
         } catch (Exception e) {
-            System.err.println("Ошибка при создании SessionFactory: " + e.getMessage());
+            log.error("Ошибка при создании SessionFactory", e);
             throw new ExceptionInInitializerError(e);
         }
     }
-}
\ No newline at end of file
+
+    @Bean
+    public PlatformTransactionManager transactionManager(SessionFactory sessionFactory, DataSource dataSource) {
+        HibernateTransactionManager transactionManager = new HibernateTransactionManager(sessionFactory);
+        transactionManager.setDataSource(dataSource);
+        return transactionManager;
+    }
+
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private static HikariConfig poolConfig() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("cities");
+        config.setJdbcUrl(System.getProperty("cities.db.url", "jdbc:postgresql://localhost:5432/cities"));
+        config.setUsername(System.getProperty("cities.db.user", "postgres"));
+        config.setPassword(System.getProperty("cities.db.password", ""));
+        config.setMaximumPoolSize(Integer.getInteger("cities.db.poolSize", 10));
+        config.setMinimumIdle(Integer.getInteger("cities.db.minIdle", 2));
+        config.setAutoCommit(false);
+
+        // statements are cached per connection by the driver and switch to server-side plans on their first reuse
+        config.addDataSourceProperty("prepareThreshold", 1);
+        config.addDataSourceProperty("preparedStatementCacheQueries", 512);
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB", 8);
+        return config;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.config;
+
+import com.example.metrics.MetricsRegistry;
+import com.example.metrics.RepositoryMetricsInterceptor;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Repository;
+
+@Configuration
+public class MetricsConfig {
+
+    // an infrastructure advisor is picked up by the auto-proxy creator @EnableTransactionManagement already registers
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public Advisor repositoryMetricsAdvisor(MetricsRegistry metrics) {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+                AnnotationMatchingPointcut.forClassAnnotation(Repository.class),
+                new RepositoryMetricsInterceptor(metrics));
+        // outside the transaction advice, so the timing includes the commit
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies schema.sql before Hibernate starts. hbm2ddl.auto=update only adds missing tables and columns and never runs
+ * import files, so the indexes, the sequence step and the outbox table are kept there as statements that can run
+ * against an empty database as well as an existing one, on every start.
+ */
+public final class SchemaMigration {
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigration.class);
+    private static final String RESOURCE = "/schema.sql";
+    // nodes starting together would otherwise race on the same CREATE ... IF NOT EXISTS
+    private static final long LOCK_KEY = 0x736368656d61L;
+
+    private SchemaMigration() {
+    }
+
+    public static void apply(DataSource dataSource) throws SQLException {
+        List<String> statements = statements();
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+                for (String sql : statements) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        log.info("Applied {} statements of schema.sql", statements.size());
+    }
+
+    static List<String> statements() {
+        String script;
+        try (InputStream input = SchemaMigration.class.getResourceAsStream(RESOURCE)) {
+            if (input == null) {
+                throw new IllegalStateException(RESOURCE + " is missing from the classpath");
+            }
+            script = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        StringBuilder withoutComments = new StringBuilder();
+        for (String line : script.split("\n")) {
+            if (!line.stripLeading().startsWith("--")) {
+                withoutComments.append(line).append('\n');
+            }
+        }
+        List<String> statements = new ArrayList<>();
+        for (String sql : withoutComments.toString().split(";")) {
+            if (!sql.isBlank()) {
+                statements.add(sql.strip());
+            }
+        }
+        return statements;
+    }
+}
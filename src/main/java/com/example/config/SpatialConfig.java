@@ -0,0 +1,26 @@
+package com.example.config;
+
+import com.example.event.CityEventBus;
+import com.example.repository.CityRepository;
+import com.example.spatial.CitySpatialSearch;
+import com.example.spatial.DatabaseCitySpatialSearch;
+import com.example.spatial.GridCitySpatialSearch;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SpatialConfig {
+
+    @Bean
+    public CitySpatialSearch citySpatialSearch(CityRepository cityRepository, CityEventBus eventBus) {
+        String type = System.getProperty("cities.spatial", "database");
+        switch (type.toLowerCase()) {
+            case "database":
+                return new DatabaseCitySpatialSearch(cityRepository);
+            case "memory":
+                return new GridCitySpatialSearch(cityRepository, eventBus);
+            default:
+                throw new IllegalArgumentException("Unknown cities.spatial: " + type);
+        }
+    }
+}
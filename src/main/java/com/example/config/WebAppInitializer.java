@@ -1,19 +1,31 @@
 package com.example.config;
 
+import com.example.metrics.StartupTimings;
 import org.springframework.web.WebApplicationInitializer;
 import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
 import org.springframework.web.servlet.DispatcherServlet;
 
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterRegistration;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletRegistration;
 
+import java.util.EnumSet;
+
 public class WebAppInitializer implements WebApplicationInitializer {
 
     @Override
     public void onStartup(ServletContext servletContext) throws ServletException {
 
-        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext() {
+            @Override
+            public void refresh() {
+                long start = System.nanoTime();
+                super.refresh();
+                StartupTimings.record("spring context refresh", System.nanoTime() - start);
+            }
+        };
         context.register(WebConfig.class);
 
         DispatcherServlet servlet = new DispatcherServlet(context);
@@ -21,5 +33,12 @@ public class WebAppInitializer implements WebApplicationInitializer {
 
         registration.setLoadOnStartup(1);
         registration.addMapping("/");
+        // the slow endpoints hand their work to the request executor and free the container thread
+        registration.setAsyncSupported(true);
+
+        FilterRegistration.Dynamic compression = servletContext.addFilter("compression", new CompressionFilter());
+        compression.setAsyncSupported(true);
+        compression.addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC), false,
+                "/api/*");
     }
 }
\ No newline at end of file
@@ -1,10 +1,14 @@
 package com.example.config;
 
+import com.example.metrics.HttpMetricsInterceptor;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -15,11 +19,32 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @Import(HibernateConfig.class)
 public class WebConfig implements WebMvcConfigurer {
 
+    private static final long ASYNC_TIMEOUT_MS = Long.getLong("cities.async.timeoutMs", 60_000);
+
+    private final HttpMetricsInterceptor httpMetricsInterceptor;
+    private final AsyncTaskExecutor requestExecutor;
+
+    public WebConfig(HttpMetricsInterceptor httpMetricsInterceptor, AsyncTaskExecutor requestExecutor) {
+        this.httpMetricsInterceptor = httpMetricsInterceptor;
+        this.requestExecutor = requestExecutor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(requestExecutor);
+        configurer.setDefaultTimeout(ASYNC_TIMEOUT_MS);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(httpMetricsInterceptor);
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/api/**")
                 .allowedOriginPatterns("http://localhost:*")
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
+                .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
                 .allowCredentials(true);
     }
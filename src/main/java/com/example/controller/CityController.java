@@ -1,79 +1,105 @@
 package com.example.controller;
 
+import com.example.config.CompressionFilter;
 import com.example.model.City;
 import com.example.model.Coordinates;
 import com.example.model.Human;
+import com.example.repository.CityFacet;
+import com.example.repository.CityField;
+import com.example.repository.CityFilter;
+import com.example.repository.CityPatch;
+import com.example.repository.CityProjection;
+import com.example.service.CityExportWriter;
+import com.example.service.CityImportReader;
 import com.example.service.CityService;
+import com.example.service.CityValidator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/cities")
 public class CityController {
+    private static final Logger log = LoggerFactory.getLogger(CityController.class);
+    private static final int MAX_SPATIAL_RESULTS = 1000;
+    private static final ObjectWriter ERROR_WRITER = new ObjectMapper().writer();
+
     private final CityService cityService;
+    private final AsyncTaskExecutor requestExecutor;
 
-    public CityController(CityService cityService) {
+    public CityController(CityService cityService, AsyncTaskExecutor requestExecutor) {
         this.cityService = cityService;
+        this.requestExecutor = requestExecutor;
     }
 
     @PostMapping("/add")
     public ResponseEntity<?> addCity(@RequestBody City city) {
         try {
-            if (city.getName() == null || city.getName().trim().isEmpty()) {
-                return createErrorResponse("City name is required", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getPopulation() == null || city.getPopulation() <= 0) {
-                return createErrorResponse("Population must be greater than 0", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getArea() == null || city.getArea() <= 0) {
-                return createErrorResponse("Area must be greater than 0", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getCoordinates() == null) {
-                return createErrorResponse("Coordinates are required", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getCoordinates().getX() > 913) {
-                return createErrorResponse("X coordinate must be ≤ 913", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getCoordinates().getY() <= -243) {
-                return createErrorResponse("Y coordinate must be > -243", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getTimezone() == null || city.getTimezone() < -13 || city.getTimezone() > 15) {
-                return createErrorResponse("Timezone must be between -13 and 15", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getCarCode() != null && (city.getCarCode() <= 0 || city.getCarCode() > 1000)) {
-                return createErrorResponse("Car code must be between 1 and 1000", HttpStatus.BAD_REQUEST);
-            }
-
-            if (city.getGovernor() == null || city.getGovernor().getName() == null || city.getGovernor().getName().trim().isEmpty()) {
-                return createErrorResponse("Governor name is required", HttpStatus.BAD_REQUEST);
+            String validationError = CityValidator.validate(city);
+            if (validationError != null) {
+                return createErrorResponse(validationError, HttpStatus.BAD_REQUEST);
             }
 
             cityService.addCity(city);
             return ResponseEntity.ok(city);
         } catch (Exception e) {
-            System.err.println("Error adding city: " + e.getMessage());
+            log.error("Error adding city", e);
             return createErrorResponse("Failed to add city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    @PostMapping("/import")
+    public ResponseEntity<?> importCities(HttpServletRequest request,
+                                          @RequestParam(value = "batchSize", defaultValue = "500") int batchSize) {
+        try {
+            if (batchSize <= 0 || batchSize > 10000) {
+                return createErrorResponse("Batch size must be between 1 and 10000", HttpStatus.BAD_REQUEST);
+            }
+
+            CityImportReader reader = CityImportReader.forContentType(request.getContentType(), request.getInputStream());
+            return ResponseEntity.ok(cityService.importCities(reader, batchSize));
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            log.error("Error importing cities", e);
+            return createErrorResponse("Failed to import cities: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     @GetMapping("/get-by-id/{id}")
-    public ResponseEntity<?> getCity(@PathVariable("id") Long id) {
+    public ResponseEntity<?> getCity(@PathVariable("id") Long id, ServletWebRequest webRequest) {
         try {
             if (id == null || id <= 0) {
                 return createErrorResponse("Invalid city ID", HttpStatus.BAD_REQUEST);
             }
+            if (notModified(webRequest)) {
+                return null;
+            }
 
             City city = cityService.getCity(id);
             if (city != null) {
@@ -82,33 +108,31 @@ public class CityController {
                 return createErrorResponse("City with ID " + id + " not found", HttpStatus.NOT_FOUND);
             }
         } catch (Exception e) {
-            System.err.println("Error getting city: " + e.getMessage());
+            log.error("Error getting city", e);
             return createErrorResponse("Failed to retrieve city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
     @GetMapping("/all")
-    public ResponseEntity<?> getAllCities(
+    public CompletableFuture<ResponseEntity<?>> getAllCities(
             @RequestParam(value = "page", defaultValue = "0") int page,
             @RequestParam(value = "size", defaultValue = "5") int size,
-
-            @RequestParam(value = "idFilter", defaultValue = "") String idFilter,
-            @RequestParam(value = "nameFilter", defaultValue = "") String nameFilter,
-            @RequestParam(value = "coordinatesXFilter", defaultValue = "") String coordinatesXFilter,
-            @RequestParam(value = "coordinatesYFilter", defaultValue = "") String coordinatesYFilter,
-            @RequestParam(value = "creationDateFilter", defaultValue = "") String creationDateFilter,
-            @RequestParam(value = "areaFilter", defaultValue = "") String areaFilter,
-            @RequestParam(value = "populationFilter", defaultValue = "") String populationFilter,
-            @RequestParam(value = "establishmentDateFilter", defaultValue = "") String establishmentDateFilter,
-            @RequestParam(value = "capitalFilter", defaultValue = "") String capitalFilter,
-            @RequestParam(value = "metersAboveSeaLevelFilter", defaultValue = "") String metersAboveSeaLevelFilter,
-            @RequestParam(value = "timezoneFilter", defaultValue = "") String timezoneFilter,
-            @RequestParam(value = "carCodeFilter", defaultValue = "") String carCodeFilter,
-            @RequestParam(value = "governmentFilter", defaultValue = "") String governmentFilter,
-            @RequestParam(value = "governorFilter", defaultValue = "") String governorFilter,
             @RequestParam(value = "sortBy", defaultValue = "id") String sortBy,
-            @RequestParam(value = "sortDirection", defaultValue = "asc") String sortDirection) {
+            @RequestParam(value = "sortDirection", defaultValue = "asc") String sortDirection,
+            @RequestParam(value = "afterId", required = false) Long afterId,
+            @RequestParam(value = "afterValue", required = false) String afterValue,
+            @RequestParam(value = "fields", required = false) String fields,
+            @RequestParam(value = "layout", defaultValue = "rows") String layout,
+            @RequestParam Map<String, String> params,
+            ServletWebRequest webRequest) {
+        if (notModified(webRequest)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return async(() -> listCities(page, size, sortBy, sortDirection, afterId, afterValue, fields, layout, params));
+    }
 
+    private ResponseEntity<?> listCities(int page, int size, String sortBy, String sortDirection, Long afterId,
+                                         String afterValue, String fields, String layout, Map<String, String> params) {
         try {
             if (page < 0) {
                 return createErrorResponse("Page number cannot be negative", HttpStatus.BAD_REQUEST);
@@ -118,125 +142,186 @@ public class CityController {
                 return createErrorResponse("Page size must be between 1 and 100", HttpStatus.BAD_REQUEST);
             }
 
-            Map<String, String> filters = new HashMap<>();
-            filters.put("id", idFilter);
-            filters.put("name", nameFilter);
-            filters.put("coordinatesX", coordinatesXFilter);
-            filters.put("coordinatesY", coordinatesYFilter);
-            filters.put("creationDate", creationDateFilter);
-            filters.put("area", areaFilter);
-            filters.put("population", populationFilter);
-            filters.put("establishmentDate", establishmentDateFilter);
-            filters.put("capital", capitalFilter);
-            filters.put("metersAboveSeaLevel", metersAboveSeaLevelFilter);
-            filters.put("timezone", timezoneFilter);
-            filters.put("carCode", carCodeFilter);
-            filters.put("government", governmentFilter);
-            filters.put("governor", governorFilter);
-
-            List<City> filteredCities = cityService.getCitiesWithFiltersAndSort(filters, sortBy, sortDirection);
-
-            int totalCities = filteredCities.size();
-            int totalPages = (int) Math.ceil((double) totalCities / size);
+            if (!"rows".equalsIgnoreCase(layout) && !"columnar".equalsIgnoreCase(layout)) {
+                return createErrorResponse("Unknown layout: " + layout, HttpStatus.BAD_REQUEST);
+            }
 
-            if (page < 0) page = 0;
-            if (size <= 0) size = 5;
+            CityFilter filter = CityFilter.fromParams(params);
+            CityField sortField = CityField.fromKey(sortBy);
+            CityProjection projection = CityProjection.fromKeys(fields, sortField);
 
-            int fromIndex = page * size;
-            if (fromIndex >= totalCities) {
-                fromIndex = Math.max(0, (totalPages - 1) * size);
-                page = Math.max(0, totalPages - 1);
-            }
+            long totalCities = cityService.countCitiesWithFilters(filter);
+            int totalPages = (int) Math.ceil((double) totalCities / size);
 
-            int toIndex = Math.min(fromIndex + size, totalCities);
-            List<City> pageContent = fromIndex < totalCities ?
-                    filteredCities.subList(fromIndex, toIndex) : List.of();
+            List<Object> pageContent;
+            if (afterId != null) {
+                pageContent = cityService.getCitiesPageAfter(filter, sortBy, sortDirection, afterValue, afterId, size,
+                        projection);
+            } else {
+                if (page >= totalPages) {
+                    page = Math.max(0, totalPages - 1);
+                }
+                pageContent = totalCities > 0 ?
+                        cityService.getCitiesPage(filter, sortBy, sortDirection, page, size, projection) : List.of();
+            }
 
             Map<String, Object> response = new HashMap<>();
-            response.put("cities", pageContent);
+            if ("columnar".equalsIgnoreCase(layout)) {
+                response.put("cities", projection.toColumns(pageContent));
+                response.put("layout", "columnar");
+            } else {
+                response.put("cities", pageContent);
+            }
             response.put("currentPage", page);
             response.put("totalItems", totalCities);
             response.put("totalPages", totalPages);
             response.put("pageSize", size);
-            response.put("filters", filters);
+            response.put("filters", filter.toParams());
             response.put("sortBy", sortBy);
             response.put("sortDirection", sortDirection);
+            if (!projection.isSummary()) {
+                response.put("fields", projection.getKey());
+            }
+
+            if (!pageContent.isEmpty()) {
+                Object last = pageContent.get(pageContent.size() - 1);
+                response.put("nextAfterId", CityProjection.extract(last, CityField.ID));
+                if (sortField != null && sortField != CityField.ID) {
+                    Object lastValue = CityProjection.extract(last, sortField);
+                    response.put("nextAfterValue", lastValue != null ? lastValue.toString() : null);
+                }
+            }
 
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (TransientDataAccessResourceException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
         } catch (Exception e) {
-            System.err.println("Error in getAllCities: " + e.getMessage());
+            log.error("Error in getAllCities", e);
             return createErrorResponse("Failed to retrieve cities: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
-    @PutMapping("/update-by-id/{id}")
-    public ResponseEntity<?> updateCity(@PathVariable("id") Long id, @RequestBody City city) {
+    @GetMapping("/facets")
+    public ResponseEntity<?> getFacets(
+            @RequestParam(value = "facets", defaultValue = "government,capital,timezone") String facets,
+            @RequestParam Map<String, String> params) {
         try {
-            if (id == null || id <= 0) {
-                return createErrorResponse("Invalid city ID", HttpStatus.BAD_REQUEST);
-            }
-
-            City existingCity = cityService.getCity(id);
-            if (existingCity == null) {
-                return createErrorResponse("City with ID " + id + " not found", HttpStatus.NOT_FOUND);
-            }
-
-            if (city.getName() == null || city.getName().trim().isEmpty()) {
-                return createErrorResponse("City name is required", HttpStatus.BAD_REQUEST);
-            }
+            CityFilter filter = CityFilter.fromParams(params);
+            Map<String, Object> response = new HashMap<>(cityService.getFacets(filter, CityFacet.fromKeys(facets)));
+            response.put("filters", filter.toParams());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            log.error("Error counting facets", e);
+            return createErrorResponse("Failed to count facets: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 
-            if (city.getPopulation() == null || city.getPopulation() <= 0) {
-                return createErrorResponse("Population must be greater than 0", HttpStatus.BAD_REQUEST);
-            }
+    /**
+     * Streams the matching cities. Spring writes the body on the request executor and owns the async lifecycle,
+     * so a bad format or filter is still answered with a 400 before anything is written.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportCities(
+            @RequestParam(value = "format", defaultValue = "ndjson") String format,
+            @RequestParam(value = "sortBy", defaultValue = "id") String sortBy,
+            @RequestParam(value = "sortDirection", defaultValue = "asc") String sortDirection,
+            @RequestParam Map<String, String> params) {
+        CityFilter filter;
+        CityExportWriter layout;
+        try {
+            filter = CityFilter.fromParams(params);
+            layout = CityExportWriter.forFormat(format, OutputStream.nullOutputStream());
+        } catch (IllegalArgumentException e) {
+            return exportError(e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
 
-            if (city.getArea() == null || city.getArea() <= 0) {
-                return createErrorResponse("Area must be greater than 0", HttpStatus.BAD_REQUEST);
+        StreamingResponseBody body = output -> {
+            try {
+                long exported = cityService.exportCities(filter, sortBy, sortDirection,
+                        CityExportWriter.forFormat(format, output));
+                log.debug("Exported {} cities as {}", exported, format);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error exporting cities", e);
+                throw e;
             }
+        };
+        return ResponseEntity.ok()
+                .contentType(new MediaType(MediaType.parseMediaType(layout.getContentType()), StandardCharsets.UTF_8))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"cities." + layout.getFileExtension() + "\"")
+                .body(body);
+    }
 
-            if (city.getCoordinates() == null) {
-                return createErrorResponse("Coordinates are required", HttpStatus.BAD_REQUEST);
+    @PutMapping("/update-by-id/{id}")
+    public ResponseEntity<?> updateCity(@PathVariable("id") Long id, @RequestBody City city) {
+        try {
+            if (id == null || id <= 0) {
+                return createErrorResponse("Invalid city ID", HttpStatus.BAD_REQUEST);
             }
 
-            if (city.getCoordinates().getX() > 913) {
-                return createErrorResponse("X coordinate must be ≤ 913", HttpStatus.BAD_REQUEST);
+            String validationError = CityValidator.validate(city);
+            if (validationError != null) {
+                return createErrorResponse(validationError, HttpStatus.BAD_REQUEST);
             }
 
-            if (city.getCoordinates().getY() <= -243) {
-                return createErrorResponse("Y coordinate must be > -243", HttpStatus.BAD_REQUEST);
+            City updated = cityService.updateCity(id, CityPatch.of(city));
+            if (updated == null) {
+                return createErrorResponse("City with ID " + id + " not found", HttpStatus.NOT_FOUND);
             }
+            return ResponseEntity.ok(updated);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (OptimisticLockingFailureException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.CONFLICT);
+        } catch (Exception e) {
+            log.error("Error updating city", e);
+            return createErrorResponse("Failed to update city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
 
-            if (city.getTimezone() == null || city.getTimezone() < -13 || city.getTimezone() > 15) {
-                return createErrorResponse("Timezone must be between -13 and 15", HttpStatus.BAD_REQUEST);
+    @PatchMapping("/{id}")
+    public ResponseEntity<?> patchCity(@PathVariable("id") Long id, @RequestBody Map<String, Object> body) {
+        try {
+            if (id == null || id <= 0) {
+                return createErrorResponse("Invalid city ID", HttpStatus.BAD_REQUEST);
             }
 
-            if (city.getCarCode() != null && (city.getCarCode() <= 0 || city.getCarCode() > 1000)) {
-                return createErrorResponse("Car code must be between 1 and 1000", HttpStatus.BAD_REQUEST);
+            CityPatch patch = CityPatch.fromBody(body);
+            if (patch.isEmpty()) {
+                return createErrorResponse("Nothing to update", HttpStatus.BAD_REQUEST);
             }
 
-            if (city.getGovernor() == null || city.getGovernor().getName() == null || city.getGovernor().getName().trim().isEmpty()) {
-                return createErrorResponse("Governor name is required", HttpStatus.BAD_REQUEST);
+            City updated = cityService.updateCity(id, patch);
+            if (updated == null) {
+                return createErrorResponse("City with ID " + id + " not found", HttpStatus.NOT_FOUND);
             }
-
-            city.setId(id);
-            cityService.updateCity(city);
-            return ResponseEntity.ok(city);
+            return ResponseEntity.ok(updated);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (OptimisticLockingFailureException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.CONFLICT);
         } catch (Exception e) {
-            System.err.println("Error updating city: " + e.getMessage());
+            log.error("Error patching city", e);
             return createErrorResponse("Failed to update city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
     @DeleteMapping("/delete-by-id/{id}")
-    public ResponseEntity<?> deleteCity(@PathVariable("id") Long id) {
+    public ResponseEntity<?> deleteCity(@PathVariable("id") Long id,
+                                        @RequestParam(value = "version", required = false) Long version) {
         try {
             if (id == null || id <= 0) {
                 return createErrorResponse("Invalid city ID", HttpStatus.BAD_REQUEST);
             }
 
-            City city = cityService.getCity(id);
-            if (city != null) {
-                cityService.deleteCityCascade(city);
+            if (cityService.deleteCity(id, version)) {
                 Map<String, Object> response = new HashMap<>();
                 response.put("success", true);
                 response.put("message", "City and related cities deleted successfully");
@@ -244,20 +329,126 @@ public class CityController {
             } else {
                 return createErrorResponse("City with ID " + id + " not found", HttpStatus.NOT_FOUND);
             }
+        } catch (OptimisticLockingFailureException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.CONFLICT);
         } catch (Exception e) {
-            System.err.println("Error deleting city: " + e.getMessage());
+            log.error("Error deleting city", e);
             return createErrorResponse("Failed to delete city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
 
+    @PatchMapping("/bulk")
+    public ResponseEntity<?> updateCities(@RequestParam Map<String, String> params,
+                                          @RequestBody Map<String, Object> body) {
+        try {
+            CityFilter filter = bulkFilter(params);
+            CityPatch patch = CityPatch.fromBody(body);
+            if (patch.isEmpty()) {
+                return createErrorResponse("Nothing to update", HttpStatus.BAD_REQUEST);
+            }
+            if (patch.getVersion() != null) {
+                return createErrorResponse("Bulk updates do not take a version", HttpStatus.BAD_REQUEST);
+            }
+
+            int updated = cityService.updateCities(filter, patch);
+            Map<String, Object> response = new HashMap<>();
+            response.put("updated", updated);
+            response.put("filters", filter.toParams());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (ConstraintViolationException e) {
+            return createErrorResponse("Rejected by the database: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            log.error("Error updating cities", e);
+            return createErrorResponse("Failed to update cities: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @DeleteMapping("/bulk")
+    public ResponseEntity<?> deleteCities(@RequestParam Map<String, String> params) {
+        try {
+            CityFilter filter = bulkFilter(params);
+            int deleted = cityService.deleteCities(filter);
+            Map<String, Object> response = new HashMap<>();
+            response.put("deleted", deleted);
+            response.put("filters", filter.toParams());
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (Exception e) {
+            log.error("Error deleting cities", e);
+            return createErrorResponse("Failed to delete cities: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static CityFilter bulkFilter(Map<String, String> params) {
+        CityFilter filter = CityFilter.fromParams(params);
+        // a forgotten filter must not silently hit the whole table
+        if (filter.isEmpty() && !"true".equalsIgnoreCase(params.get("all"))) {
+            throw new IllegalArgumentException("A filter is required, pass all=true to change every city");
+        }
+        return filter;
+    }
+
+    @GetMapping("/nearest")
+    public ResponseEntity<?> getNearestCities(@RequestParam("x") double x, @RequestParam("y") double y,
+                                              @RequestParam(value = "k", defaultValue = "10") int k) {
+        try {
+            if (k <= 0 || k > MAX_SPATIAL_RESULTS) {
+                return createErrorResponse("k must be between 1 and " + MAX_SPATIAL_RESULTS, HttpStatus.BAD_REQUEST);
+            }
+            return ResponseEntity.ok(cityService.getNearestCities(x, y, k));
+        } catch (Exception e) {
+            log.error("Error finding nearest cities", e);
+            return createErrorResponse("Failed to find nearest cities: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/within-radius")
+    public ResponseEntity<?> getCitiesWithinRadius(@RequestParam("x") double x, @RequestParam("y") double y,
+                                                   @RequestParam("radius") double radius,
+                                                   @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        try {
+            if (radius < 0) {
+                return createErrorResponse("Radius cannot be negative", HttpStatus.BAD_REQUEST);
+            }
+            if (limit <= 0 || limit > MAX_SPATIAL_RESULTS) {
+                return createErrorResponse("Limit must be between 1 and " + MAX_SPATIAL_RESULTS, HttpStatus.BAD_REQUEST);
+            }
+            return ResponseEntity.ok(cityService.getCitiesWithinRadius(x, y, radius, limit));
+        } catch (Exception e) {
+            log.error("Error finding cities within radius", e);
+            return createErrorResponse("Failed to find cities within radius: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/within-box")
+    public ResponseEntity<?> getCitiesWithinBox(@RequestParam("minX") double minX, @RequestParam("minY") double minY,
+                                                @RequestParam("maxX") double maxX, @RequestParam("maxY") double maxY,
+                                                @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        try {
+            if (minX > maxX || minY > maxY) {
+                return createErrorResponse("The minimum corner must not exceed the maximum one", HttpStatus.BAD_REQUEST);
+            }
+            if (limit <= 0 || limit > MAX_SPATIAL_RESULTS) {
+                return createErrorResponse("Limit must be between 1 and " + MAX_SPATIAL_RESULTS, HttpStatus.BAD_REQUEST);
+            }
+            return ResponseEntity.ok(cityService.getCitiesWithinBox(minX, minY, maxX, maxY, limit));
+        } catch (Exception e) {
+            log.error("Error finding cities within box", e);
+            return createErrorResponse("Failed to find cities within box: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
     @GetMapping("/sum-of-timezones")
     public ResponseEntity<?> getSumOfTimezones() {
         try {
             Double sum = cityService.getSumOfTimezones();
             return ResponseEntity.ok(sum);
         } catch (Exception e) {
-            System.err.println("Error calculating sum of timezones: " + e.getMessage());
+            log.error("Error calculating sum of timezones", e);
             return createErrorResponse("Failed to calculate sum of timezones: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
@@ -281,48 +472,113 @@ public class CityController {
             Double averageCarCode = cityService.getAverageCarCode();
             return ResponseEntity.ok(averageCarCode);
         } catch (Exception e) {
-            System.err.println("Error calculating average car code: " + e.getMessage());
+            log.error("Error calculating average car code", e);
             return createErrorResponse("Failed to calculate average car code: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
     @GetMapping("/timezone-less-than/{timezone}")
-    public ResponseEntity<?> getCitiesWithTimezoneLessThan(@PathVariable("timezone") int timezone) {
-        try {
-            if (timezone < -13 || timezone > 15) {
-                return createErrorResponse("Timezone must be between -13 and 15", HttpStatus.BAD_REQUEST);
+    public CompletableFuture<ResponseEntity<?>> getCitiesWithTimezoneLessThan(
+            @PathVariable("timezone") int timezone,
+            @RequestParam(value = "fields", required = false) String fields) {
+        return async(() -> {
+            try {
+                if (timezone < -13 || timezone > 15) {
+                    return createErrorResponse("Timezone must be between -13 and 15", HttpStatus.BAD_REQUEST);
+                }
+
+                List<Object> cities = cityService.getCitiesWithTimezoneLessThan(timezone, CityProjection.fromKeys(fields));
+                return ResponseEntity.ok(cities);
+            } catch (IllegalArgumentException e) {
+                return createErrorResponse(e.getMessage(), HttpStatus.BAD_REQUEST);
+            } catch (TransientDataAccessResourceException e) {
+                return createErrorResponse(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+            } catch (Exception e) {
+                log.error("Error getting cities with timezone less than {}", timezone, e);
+                return createErrorResponse("Failed to get cities with timezone greater than " + timezone + ": " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
             }
-
-            List<City> cities = cityService.getCitiesWithTimezoneLessThan(timezone);
-            return ResponseEntity.ok(cities);
-        } catch (Exception e) {
-            System.err.println("Error getting cities with timezone less than " + timezone + ": " + e.getMessage());
-            return createErrorResponse("Failed to get cities with timezone greater than " + timezone + ": " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        });
     }
 
     @GetMapping("/distance-to-most-populated")
-    public ResponseEntity<?> getDistanceToMostPopulatedCity() {
-        try {
-            Double dist = cityService.calculateDistanceToTheMostPopulatedCity();
-            return ResponseEntity.ok(dist);
-        } catch (Exception e) {
-            System.err.println("Error calculating distance to most populated city: " + e.getMessage());
-            return createErrorResponse("Failed to calculate distance to most populated city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+    public CompletableFuture<ResponseEntity<?>> getDistanceToMostPopulatedCity() {
+        return async(() -> {
+            try {
+                Double dist = cityService.calculateDistanceToTheMostPopulatedCity();
+                return ResponseEntity.ok(dist);
+            } catch (Exception e) {
+                log.error("Error calculating distance to most populated city", e);
+                return createErrorResponse("Failed to calculate distance to most populated city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
     }
 
     @GetMapping("/distance-to-newest")
-    public ResponseEntity<?> getDistanceToNewestCity() {
+    public CompletableFuture<ResponseEntity<?>> getDistanceToNewestCity() {
+        return async(() -> {
+            try {
+                Double dist = cityService.calculateDistanceToNewestCity();
+                return ResponseEntity.ok(dist);
+            } catch (Exception e) {
+                log.error("Error calculating distance to newest city", e);
+                return createErrorResponse("Failed to calculate distance to newest city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+        });
+    }
+
+    @PostMapping("/aggregates/verify")
+    public ResponseEntity<?> verifyAggregates() {
         try {
-            Double dist = cityService.calculateDistanceToNewestCity();
-            return ResponseEntity.ok(dist);
+            return ResponseEntity.ok(cityService.verifyAggregates());
         } catch (Exception e) {
-            System.err.println("Error calculating distance to newest city: " + e.getMessage());
-            return createErrorResponse("Failed to calculate distance to newest city: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            log.error("Error verifying aggregates", e);
+            return createErrorResponse("Failed to verify aggregates: " + e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
     }
 
+    @GetMapping("/cache/stats")
+    public ResponseEntity<List<Map<String, Object>>> getCacheStats() {
+        return ResponseEntity.ok(cityService.getCacheStats());
+    }
+
+    @GetMapping("/broadcast/stats")
+    public ResponseEntity<Map<String, Object>> getBroadcastStats() {
+        return ResponseEntity.ok(cityService.getBroadcastStats());
+    }
+
+    /**
+     * Runs a handler on the request executor, so the container thread is free again while it waits on the database.
+     */
+    private CompletableFuture<ResponseEntity<?>> async(Supplier<ResponseEntity<?>> handler) {
+        return CompletableFuture.supplyAsync(handler, requestExecutor);
+    }
+
+    /**
+     * Answers 304 when the client already holds this response at the current change tag. Every change this instance
+     * commits or hears of moves the tag, and polling an unchanged table costs no query.
+     */
+    private boolean notModified(ServletWebRequest webRequest) {
+        String accept = webRequest.getHeader("Accept");
+        String encoding = CompressionFilter.encodingFor(webRequest.getHeader("Accept-Encoding"));
+        // JSON, CBOR and Smile bodies and their compressed forms are different responses, each gets its own tag
+        String etag = "\"" + cityService.getChangeTag() + "-"
+                + Integer.toHexString(Objects.hash(accept, encoding)) + "\"";
+        HttpServletResponse response = webRequest.getResponse();
+        response.addHeader("Vary", "Accept");
+        response.setHeader("Cache-Control", "no-cache");
+        return webRequest.checkNotModified(etag);
+    }
+
+    /**
+     * The usual JSON error body, as a streaming body so it fits the export's return type.
+     */
+    private ResponseEntity<StreamingResponseBody> exportError(String message) {
+        Map<String, Object> error = createErrorResponse(message, HttpStatus.BAD_REQUEST).getBody();
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(output -> ERROR_WRITER.writeValue(output, error));
+    }
+
     private ResponseEntity<Map<String, Object>> createErrorResponse(String message, HttpStatus status) {
         Map<String, Object> errorResponse = new HashMap<>();
         errorResponse.put("success", false);
@@ -0,0 +1,40 @@
+package com.example.controller;
+
+import com.example.metrics.MetricsRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+@RestController
+public class MetricsController {
+    private static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8");
+
+    private final MetricsRegistry metrics;
+
+    public MetricsController(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @GetMapping("/metrics")
+    public ResponseEntity<String> scrape(HttpServletRequest request) {
+        // only a scraper running next to the server gets to read these
+        if (!isLoopback(request.getRemoteAddr())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return ResponseEntity.ok().contentType(PROMETHEUS_TEXT).body(metrics.scrape());
+    }
+
+    private static boolean isLoopback(String address) {
+        try {
+            return InetAddress.getByName(address).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.event;
+
+import com.example.model.City;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * A committed change to the cities table. Events relayed from the outbox carry the previous version stored with the
+ * entry and the current city as read after commit; events received from another node only carry what could be re-read
+ * from the database: the current city for additions and updates and nothing but the id for deletions. The origin is the
+ * node whose transaction made the change, whichever node relayed it, and xid the id of that transaction, null when the
+ * event stands for several transactions.
+ */
+@Getter
+@AllArgsConstructor
+public class CityChangeEvent {
+    public static final String CITY_ADDED = "CITY_ADDED";
+    public static final String CITY_UPDATED = "CITY_UPDATED";
+    public static final String CITY_DELETED = "CITY_DELETED";
+    public static final String CITIES_IMPORTED = "CITIES_IMPORTED";
+    public static final String CITIES_UPDATED = "CITIES_UPDATED";
+    public static final String CITIES_DELETED = "CITIES_DELETED";
+    public static final String CITIES_CHANGED = "CITIES_CHANGED";
+
+    public static final String LOCAL_NODE = UUID.randomUUID().toString();
+
+    private final String type;
+    private final Long id;
+    private final City previous;
+    private final City current;
+    private final Object data;
+    private final String origin;
+    private final Long xid;
+
+    public boolean isBulk() {
+        return id == null;
+    }
+
+    /**
+     * Whether the change was made on another node, or by an unknown one, so this node's cache and aggregates have not
+     * seen it yet.
+     */
+    public boolean isRemote() {
+        return !LOCAL_NODE.equals(origin);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.event;
+
+public interface CityEventBus {
+
+    void publish(CityChangeEvent event);
+
+    void subscribe(CityEventListener listener);
+}
@@ -0,0 +1,8 @@
+package com.example.event;
+
+import java.util.List;
+
+public interface CityEventListener {
+
+    void onEvents(List<CityChangeEvent> events);
+}
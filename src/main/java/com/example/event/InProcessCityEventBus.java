@@ -0,0 +1,32 @@
+package com.example.event;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class InProcessCityEventBus implements CityEventBus {
+    private static final Logger log = LoggerFactory.getLogger(InProcessCityEventBus.class);
+    protected final List<CityEventListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(CityChangeEvent event) {
+        deliver(List.of(event));
+    }
+
+    @Override
+    public void subscribe(CityEventListener listener) {
+        listeners.add(listener);
+    }
+
+    protected void deliver(List<CityChangeEvent> events) {
+        for (CityEventListener listener : listeners) {
+            try {
+                listener.onEvents(events);
+            } catch (Exception e) {
+                log.error("City event listener failed", e);
+            }
+        }
+    }
+}
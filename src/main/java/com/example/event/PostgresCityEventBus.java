@@ -0,0 +1,201 @@
+package com.example.event;
+
+import com.example.model.City;
+import com.example.repository.CityRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Publishes every change relayed by this node with NOTIFY and listens for the changes relayed by the other nodes on a
+ * dedicated connection. Notifications only carry the relaying node, the node that made the change, the change type, the
+ * city id and the writing transaction; a burst of them is re-read from the database with a single query before it is
+ * handed to the listeners.
+ * A node can relay another node's change, which then reaches its origin as a notification but is not remote there.
+ */
+public class PostgresCityEventBus extends InProcessCityEventBus implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(PostgresCityEventBus.class);
+    private static final String CHANNEL = "city_changes";
+    private static final int POLL_TIMEOUT_MS = 500;
+    private static final long RETRY_DELAY_MS = 2_000;
+
+    private record Change(String type, String origin, Long xid) {
+    }
+
+    private final ConnectionProvider connectionProvider;
+    private final CityRepository cityRepository;
+    private final Thread listenerThread;
+    private volatile boolean running = true;
+
+    public PostgresCityEventBus(SessionFactory sessionFactory, CityRepository cityRepository) {
+        this.connectionProvider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(ConnectionProvider.class);
+        this.cityRepository = cityRepository;
+        this.listenerThread = new Thread(this::listen, "city-events-listener");
+        this.listenerThread.setDaemon(true);
+        this.listenerThread.start();
+    }
+
+    @Override
+    public void publish(CityChangeEvent event) {
+        super.publish(event);
+        notify(event);
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        listenerThread.interrupt();
+    }
+
+    private void notify(CityChangeEvent event) {
+        String payload = CityChangeEvent.LOCAL_NODE + "," + (event.getOrigin() != null ? event.getOrigin() : "") + ","
+                + event.getType() + "," + (event.getId() != null ? event.getId() : "") + ","
+                + (event.getXid() != null ? event.getXid() : "");
+        try {
+            Connection connection = connectionProvider.getConnection();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+                statement.setString(1, CHANNEL);
+                statement.setString(2, payload);
+                statement.execute();
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                connectionProvider.closeConnection(connection);
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to notify other nodes about {}: {}", payload, e.getMessage());
+        }
+    }
+
+    private void listen() {
+        boolean reconnecting = false;
+        while (running) {
+            Connection connection = null;
+            try {
+                connection = connectionProvider.getConnection();
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+                if (reconnecting) {
+                    // whatever was sent while we were not listening is lost, tell everyone to start over
+                    deliver(List.of(new CityChangeEvent(CityChangeEvent.CITIES_CHANGED, null, null, null, null, null,
+                            null)));
+                    reconnecting = false;
+                }
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications != null && notifications.length > 0) {
+                        handle(notifications);
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                reconnecting = true;
+                log.warn("City event listener disconnected, retrying: {}", e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } finally {
+                if (connection != null) {
+                    try {
+                        connectionProvider.closeConnection(connection);
+                    } catch (SQLException e) {
+                        log.warn("Failed to release the city event listener connection: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void handle(PGNotification[] notifications) {
+        Map<Long, Change> changes = new LinkedHashMap<>();
+        List<CityChangeEvent> events = new ArrayList<>();
+
+        for (PGNotification notification : notifications) {
+            String[] parts = notification.getParameter().split(",", -1);
+            // what this node relayed itself has already been delivered by publish
+            if (parts.length != 5 || CityChangeEvent.LOCAL_NODE.equals(parts[0])) {
+                continue;
+            }
+            String origin = parts[1].isEmpty() ? null : parts[1];
+            String type = parts[2];
+            Long xid = parts[4].isEmpty() ? null : Long.valueOf(parts[4]);
+            if (parts[3].isEmpty()) {
+                events.add(new CityChangeEvent(type, null, null, null, null, origin, xid));
+                continue;
+            }
+
+            // several changes of one city in a burst collapse into the last one, an addition stays an addition
+            Long id = Long.valueOf(parts[3]);
+            Change previous = changes.remove(id);
+            Change change = new Change(type, origin, xid);
+            if (previous != null && !Objects.equals(previous.origin(), origin)) {
+                // made on different nodes, so no node has applied all of them itself, it is remote to everyone
+                String merged = CityChangeEvent.CITY_DELETED.equals(type) ? type : CityChangeEvent.CITY_UPDATED;
+                change = new Change(merged, null, null);
+            } else if (previous != null && CityChangeEvent.CITY_ADDED.equals(previous.type())
+                    && !CityChangeEvent.CITY_DELETED.equals(type)) {
+                // the addition now stands for several transactions
+                change = new Change(previous.type(), previous.origin(), null);
+            }
+            changes.put(id, change);
+        }
+
+        if (!changes.isEmpty()) {
+            List<Long> ids = new ArrayList<>();
+            changes.forEach((id, change) -> {
+                if (!CityChangeEvent.CITY_DELETED.equals(change.type())) {
+                    ids.add(id);
+                }
+            });
+
+            Map<Long, City> cities = new HashMap<>();
+            for (City city : cityRepository.findByIds(ids)) {
+                cities.put(city.getId(), city);
+            }
+
+            changes.forEach((id, change) -> {
+                City current = CityChangeEvent.CITY_DELETED.equals(change.type()) ? null : cities.get(id);
+                if (current == null) {
+                    events.add(new CityChangeEvent(CityChangeEvent.CITY_DELETED, id, null, null, null,
+                            change.origin(), change.xid()));
+                } else {
+                    events.add(new CityChangeEvent(change.type(), id, null, current, null, change.origin(),
+                            change.xid()));
+                }
+            });
+        }
+
+        if (!events.isEmpty()) {
+            deliver(events);
+        }
+    }
+}
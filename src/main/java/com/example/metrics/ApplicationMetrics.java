@@ -0,0 +1,87 @@
+package com.example.metrics;
+
+import com.example.repository.DatabaseConcurrencyLimiter;
+import com.example.service.CityCache;
+import com.example.websocket.CityWebSocketHandler;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Exposes the counters Hibernate, the WebSocket handler, the caches and the database limiter keep anyway, read on
+ * each scrape.
+ */
+@Component
+public class ApplicationMetrics {
+
+    public ApplicationMetrics(MetricsRegistry metrics, SessionFactory sessionFactory,
+                              CityWebSocketHandler webSocketHandler, CityCache cityCache,
+                              DatabaseConcurrencyLimiter databaseLimiter) {
+        metrics.register(samples -> collectHibernate(samples, sessionFactory.getStatistics()));
+        metrics.register(samples -> collectWebSocket(samples, webSocketHandler));
+        metrics.register(samples -> collectCaches(samples, cityCache));
+        metrics.register(samples -> samples.counter("slow_queries_total", "", SlowQueryLog.count()));
+        metrics.register(StartupTimings::collect);
+        metrics.register(samples -> {
+            samples.gauge("database_calls_in_progress", "", databaseLimiter.getInUse());
+            samples.gauge("database_calls_waiting", "", databaseLimiter.getWaiting());
+        });
+    }
+
+    private static void collectHibernate(MetricsRegistry.Samples samples, Statistics statistics) {
+        if (!statistics.isStatisticsEnabled()) {
+            return;
+        }
+        samples.counter("hibernate_queries_total", "", statistics.getQueryExecutionCount());
+        samples.gauge("hibernate_query_max_seconds", "", statistics.getQueryExecutionMaxTime() / 1000.0);
+        samples.counter("hibernate_entity_loads_total", "", statistics.getEntityLoadCount());
+        samples.counter("hibernate_entity_fetches_total", "", statistics.getEntityFetchCount());
+        samples.counter("hibernate_entity_inserts_total", "", statistics.getEntityInsertCount());
+        samples.counter("hibernate_entity_updates_total", "", statistics.getEntityUpdateCount());
+        samples.counter("hibernate_entity_deletes_total", "", statistics.getEntityDeleteCount());
+        samples.counter("hibernate_statements_prepared_total", "", statistics.getPrepareStatementCount());
+        samples.counter("hibernate_connections_obtained_total", "", statistics.getConnectCount());
+        samples.counter("hibernate_sessions_opened_total", "", statistics.getSessionOpenCount());
+        samples.counter("hibernate_transactions_total", "", statistics.getTransactionCount());
+        samples.counter("hibernate_cache_hits_total", MetricsRegistry.label("cache", "second_level"),
+                statistics.getSecondLevelCacheHitCount());
+        samples.counter("hibernate_cache_misses_total", MetricsRegistry.label("cache", "second_level"),
+                statistics.getSecondLevelCacheMissCount());
+        samples.counter("hibernate_cache_hits_total", MetricsRegistry.label("cache", "query"),
+                statistics.getQueryCacheHitCount());
+        samples.counter("hibernate_cache_misses_total", MetricsRegistry.label("cache", "query"),
+                statistics.getQueryCacheMissCount());
+        samples.counter("hibernate_query_plan_cache_hits_total", "", statistics.getQueryPlanCacheHitCount());
+        samples.counter("hibernate_query_plan_cache_misses_total", "", statistics.getQueryPlanCacheMissCount());
+    }
+
+    private static void collectWebSocket(MetricsRegistry.Samples samples, CityWebSocketHandler handler) {
+        Map<String, Object> stats = handler.getStats();
+        samples.gauge("websocket_sessions", "", (Number) stats.get("sessions"));
+        samples.gauge("websocket_subscription_groups", "", (Number) stats.get("subscriptionGroups"));
+        samples.gauge("websocket_queue_depth", "", (Number) stats.get("queueDepth"));
+        samples.gauge("websocket_sequence", "", (Number) stats.get("sequence"));
+        samples.counter("websocket_events_queued_total", "", (Number) stats.get("eventsQueued"));
+        samples.counter("websocket_events_coalesced_total", "", (Number) stats.get("eventsCoalesced"));
+        samples.counter("websocket_batches_total", "", (Number) stats.get("batchesSent"));
+        samples.counter("websocket_frames_sent_total", "", (Number) stats.get("framesSent"));
+        samples.counter("websocket_send_failures_total", "", (Number) stats.get("failedSends"));
+        samples.counter("websocket_sessions_dropped_total", "", (Number) stats.get("droppedSessions"));
+        samples.counter("websocket_replays_total", "", (Number) stats.get("replays"));
+        samples.counter("websocket_reloads_total", "", (Number) stats.get("reloads"));
+        handler.getSendLatency().writeTo(samples, "websocket_send_seconds", "");
+    }
+
+    private static void collectCaches(MetricsRegistry.Samples samples, CityCache cityCache) {
+        for (Map<String, Object> stats : cityCache.stats()) {
+            String labels = MetricsRegistry.label("cache", stats.get("name"));
+            samples.gauge("city_cache_size", labels, (Number) stats.get("size"));
+            samples.counter("city_cache_hits_total", labels, (Number) stats.get("hits"));
+            samples.counter("city_cache_misses_total", labels, (Number) stats.get("misses"));
+            samples.counter("city_cache_evictions_total", labels, (Number) stats.get("evictions"));
+            samples.counter("city_cache_invalidations_total", labels, (Number) stats.get("invalidations"));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.metrics;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+@Component
+public class HttpMetricsInterceptor implements HandlerInterceptor {
+    private static final String START_ATTRIBUTE = HttpMetricsInterceptor.class.getName() + ".start";
+
+    private final MetricsRegistry metrics;
+
+    public HttpMetricsInterceptor(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // an asynchronous handler passes here again when its result is written, the first start still counts
+        if (request.getAttribute(START_ATTRIBUTE) == null) {
+            request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        // the route pattern rather than the path, so /get-by-id/{id} stays one series
+        Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String labels = MetricsRegistry.label("method", request.getMethod()) + ","
+                + MetricsRegistry.label("route", route != null ? route : "unmatched") + ","
+                + MetricsRegistry.label("status", response.getStatus());
+        metrics.histogram("http_server_requests_seconds", labels).record(System.nanoTime() - (Long) start);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Prometheus-style histogram with fixed buckets. Recording is lock-free, so it can sit on every request.
+ */
+public class LatencyHistogram {
+    static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length];
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        double seconds = nanos / 1e9;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (seconds <= BUCKETS[i]) {
+                counts[i].increment();
+                break;
+            }
+        }
+        count.increment();
+        sum.add(seconds);
+    }
+
+    void writeTo(MetricsRegistry.Samples samples, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            cumulative += counts[i].sum();
+            samples.add(name, "histogram", name + "_bucket{" + prefix + "le=\"" + BUCKETS[i] + "\"}", cumulative);
+        }
+        long total = count.sum();
+        samples.add(name, "histogram", name + "_bucket{" + prefix + "le=\"+Inf\"}", total);
+        samples.add(name, "histogram", name + "_sum" + MetricsRegistry.braces(labels), sum.sum());
+        samples.add(name, "histogram", name + "_count" + MetricsRegistry.braces(labels), total);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograms and counters recorded by the application, plus collectors that read the stats other components already
+ * keep, rendered in the Prometheus text format on every scrape.
+ */
+@Component
+public class MetricsRegistry {
+    private static final Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public interface Collector {
+        void collect(Samples samples);
+    }
+
+    private record Key(String name, String labels) {
+    }
+
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<Key, LongAdder> counters = new ConcurrentHashMap<>();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<>();
+
+    public LatencyHistogram histogram(String name, String labels) {
+        return histograms.computeIfAbsent(new Key(name, labels), key -> new LatencyHistogram());
+    }
+
+    public LongAdder counter(String name, String labels) {
+        return counters.computeIfAbsent(new Key(name, labels), key -> new LongAdder());
+    }
+
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    public String scrape() {
+        Samples samples = new Samples();
+        histograms.forEach((key, histogram) -> histogram.writeTo(samples, key.name(), key.labels()));
+        counters.forEach((key, counter) -> samples.counter(key.name(), key.labels(), counter.sum()));
+        for (Collector collector : collectors) {
+            try {
+                collector.collect(samples);
+            } catch (Exception e) {
+                log.warn("Metrics collector failed: {}", e.getMessage());
+            }
+        }
+        return samples.render();
+    }
+
+    public static String label(String name, Object value) {
+        String text = String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + text + "\"";
+    }
+
+    static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    public static final class Samples {
+        private final Map<String, String> types = new TreeMap<>();
+        private final Map<String, List<String>> lines = new TreeMap<>();
+
+        public void gauge(String name, String labels, Number value) {
+            add(name, "gauge", name + braces(labels), value);
+        }
+
+        public void counter(String name, String labels, Number value) {
+            add(name, "counter", name + braces(labels), value);
+        }
+
+        void add(String name, String type, String series, Number value) {
+            types.putIfAbsent(name, type);
+            lines.computeIfAbsent(name, n -> new ArrayList<>()).add(series + " " + value);
+        }
+
+        String render() {
+            StringBuilder text = new StringBuilder();
+            lines.forEach((name, series) -> {
+                text.append("# TYPE ").append(name).append(' ').append(types.get(name)).append('\n');
+                for (String line : series) {
+                    text.append(line).append('\n');
+                }
+            });
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.util.Collection;
+
+/**
+ * Times every repository call, including the transaction it opens on its own, and counts the rows it returns.
+ */
+public class RepositoryMetricsInterceptor implements MethodInterceptor {
+    private final MetricsRegistry metrics;
+
+    public RepositoryMetricsInterceptor(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        String labels = MetricsRegistry.label("method", method);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = invocation.proceed();
+            failed = false;
+            if (result instanceof Collection<?> rows) {
+                metrics.counter("repository_rows_total", labels).add(rows.size());
+            } else if (method.startsWith("stream") && result instanceof Long rows) {
+                metrics.counter("repository_rows_total", labels).add(rows);
+            }
+            return result;
+        } finally {
+            metrics.histogram("repository_method_seconds", labels).record(System.nanoTime() - start);
+            if (failed) {
+                metrics.counter("repository_errors_total", labels).increment();
+            }
+        }
+    }
+}
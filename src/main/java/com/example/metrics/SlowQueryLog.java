@@ -0,0 +1,59 @@
+package com.example.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs the HQL of dynamic queries that run longer than -Dcities.slowQuery.ms (200 ms by default). Parameters are
+ * logged by name and type only, the values may be user input. With -Dcities.slowQuery.sampleEvery=N and the logger
+ * at DEBUG, every Nth faster query is logged as well.
+ */
+public final class SlowQueryLog {
+    private static final Logger log = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    public static final long THRESHOLD_MS = Long.getLong("cities.slowQuery.ms", 200);
+    private static final long THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(THRESHOLD_MS);
+    private static final int SAMPLE_EVERY = Integer.getInteger("cities.slowQuery.sampleEvery", 0);
+
+    private static final LongAdder SLOW_QUERIES = new LongAdder();
+    private static final AtomicLong QUERIES = new AtomicLong();
+
+    private SlowQueryLog() {
+    }
+
+    public static void record(String method, CharSequence hql, Map<String, Object> params, long nanos) {
+        if (nanos < THRESHOLD_NANOS) {
+            if (SAMPLE_EVERY > 0 && log.isDebugEnabled() && QUERIES.incrementAndGet() % SAMPLE_EVERY == 0) {
+                log.debug("Sampled query in {} took {} us: {} {}", method, TimeUnit.NANOSECONDS.toMicros(nanos),
+                        hql, shape(params));
+            }
+            return;
+        }
+        SLOW_QUERIES.increment();
+        log.warn("Slow query in {} took {} ms: {} {}", method, TimeUnit.NANOSECONDS.toMillis(nanos), hql, shape(params));
+    }
+
+    public static long count() {
+        return SLOW_QUERIES.sum();
+    }
+
+    static String shape(Map<String, Object> params) {
+        StringJoiner shape = new StringJoiner(", ", "{", "}");
+        new TreeMap<>(params).forEach((name, value) -> {
+            if (value instanceof Collection<?> values) {
+                shape.add(name + ": " + (values.isEmpty() ? "List" : "List<" + values.iterator().next().getClass().getSimpleName() + ">") + "[" + values.size() + "]");
+            } else {
+                shape.add(name + ": " + (value != null ? value.getClass().getSimpleName() : "null"));
+            }
+        });
+        return shape.toString();
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of the startup took, in the order they finished. Recorded by whichever code runs the phase,
+ * in a container as well as in the embedded server, and exported as startup_phase_seconds.
+ */
+public final class StartupTimings {
+    private static final Logger log = LoggerFactory.getLogger(StartupTimings.class);
+
+    private static final Map<String, Long> PHASES = new LinkedHashMap<>();
+
+    private StartupTimings() {
+    }
+
+    public static synchronized void record(String phase, long nanos) {
+        PHASES.put(phase, nanos);
+        log.info("Startup phase '{}' took {} ms", phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    public static synchronized Map<String, Long> phases() {
+        return new LinkedHashMap<>(PHASES);
+    }
+
+    static void collect(MetricsRegistry.Samples samples) {
+        phases().forEach((phase, nanos) -> samples.gauge("startup_phase_seconds", MetricsRegistry.label("phase", phase),
+                nanos / 1e9));
+    }
+}
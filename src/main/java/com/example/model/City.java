@@ -37,6 +37,8 @@ public class City {
 
     private Human governor;
 
+    private Long version;
+
     public City() {}
 
 
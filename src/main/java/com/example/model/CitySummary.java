@@ -0,0 +1,29 @@
+package com.example.model;
+
+import java.time.LocalDate;
+
+/**
+ * A read-only city, selected column by column instead of loaded as an entity, so listing cities skips the
+ * persistence context and its snapshots. It serializes to the same JSON as {@link City}.
+ */
+public record CitySummary(Long id, String name, Point coordinates, LocalDate creationDate, Double area,
+                          Long population, LocalDate establishmentDate, boolean capital, Float metersAboveSeaLevel,
+                          Integer timezone, Integer carCode, Government government, Governor governor, Long version) {
+
+    public record Point(Long x, Long y) {
+    }
+
+    public record Governor(String name) {
+    }
+
+    /**
+     * The constructor of the HQL "SELECT new" expression, which can only pass the columns one by one.
+     */
+    public CitySummary(Long id, String name, Long x, Long y, LocalDate creationDate, Double area, Long population,
+                       LocalDate establishmentDate, Boolean capital, Float metersAboveSeaLevel, Integer timezone,
+                       Integer carCode, Government government, String governorName, Long version) {
+        this(id, name, new Point(x, y), creationDate, area, population, establishmentDate,
+                capital != null && capital, metersAboveSeaLevel, timezone, carCode, government,
+                governorName != null ? new Governor(governorName) : null, version);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A dimension the cities can be counted by. Coordinates are counted per distinct (x, y) pair.
+ */
+@Getter
+@AllArgsConstructor
+public enum CityFacet {
+    GOVERNMENT("government", List.of(CityField.GOVERNMENT)),
+    CAPITAL("capital", List.of(CityField.CAPITAL)),
+    TIMEZONE("timezone", List.of(CityField.TIMEZONE)),
+    CAR_CODE("carCode", List.of(CityField.CAR_CODE)),
+    GOVERNOR("governor", List.of(CityField.GOVERNOR)),
+    COORDINATES("coordinates", List.of(CityField.COORDINATES_X, CityField.COORDINATES_Y));
+
+    public record Count(Object value, long count) {
+    }
+
+    private final String key;
+    private final List<CityField> fields;
+
+    public static Set<CityFacet> fromKeys(String keys) {
+        Set<CityFacet> facets = EnumSet.noneOf(CityFacet.class);
+        for (String key : keys.split(",")) {
+            if (key.trim().isEmpty()) {
+                continue;
+            }
+            CityFacet facet = null;
+            for (CityFacet candidate : values()) {
+                if (candidate.key.equalsIgnoreCase(key.trim())) {
+                    facet = candidate;
+                }
+            }
+            if (facet == null) {
+                throw new IllegalArgumentException("Unknown facet: " + key.trim());
+            }
+            facets.add(facet);
+        }
+        if (facets.isEmpty()) {
+            throw new IllegalArgumentException("At least one facet is required");
+        }
+        return facets;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.repository;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.model.Government;
+import com.example.model.Human;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+@Getter
+@AllArgsConstructor
+public enum CityField {
+    ID("id", "c.id", "id", false, Long::valueOf, City::getId, (city, value) -> city.setId((Long) value)),
+    NAME("name", "c.name", "name", false, value -> value, City::getName,
+            (city, value) -> city.setName((String) value)),
+    COORDINATES_X("coordinatesX", "c.coordinates.x", "x", false, Long::valueOf,
+            city -> city.getCoordinates() != null ? city.getCoordinates().getX() : null,
+            (city, value) -> coordinates(city).setX((Long) value)),
+    COORDINATES_Y("coordinatesY", "c.coordinates.y", "y", false, Long::valueOf,
+            city -> city.getCoordinates() != null ? city.getCoordinates().getY() : null,
+            (city, value) -> coordinates(city).setY((Long) value)),
+    CREATION_DATE("creationDate", "c.creationDate", "creation_date", false, LocalDate::parse, City::getCreationDate,
+            (city, value) -> city.setCreationDate((LocalDate) value)),
+    AREA("area", "c.area", "area", false, Double::valueOf, City::getArea,
+            (city, value) -> city.setArea((Double) value)),
+    POPULATION("population", "c.population", "population", false, Long::valueOf, City::getPopulation,
+            (city, value) -> city.setPopulation((Long) value)),
+    ESTABLISHMENT_DATE("establishmentDate", "c.establishmentDate", "establishment_date", true, LocalDate::parse,
+            City::getEstablishmentDate, (city, value) -> city.setEstablishmentDate((LocalDate) value)),
+    CAPITAL("capital", "c.capital", "capital", false, CityField::parseBoolean, City::isCapital,
+            (city, value) -> city.setCapital((Boolean) value)),
+    METERS_ABOVE_SEA_LEVEL("metersAboveSeaLevel", "c.metersAboveSeaLevel", "meters_above_sea_level", true,
+            Float::valueOf, City::getMetersAboveSeaLevel, (city, value) -> city.setMetersAboveSeaLevel((Float) value)),
+    TIMEZONE("timezone", "c.timezone", "timezone", false, Integer::valueOf, City::getTimezone,
+            (city, value) -> city.setTimezone((Integer) value)),
+    CAR_CODE("carCode", "c.carCode", "car_code", true, Integer::valueOf, City::getCarCode,
+            (city, value) -> city.setCarCode((Integer) value)),
+    GOVERNMENT("government", "c.government", "government", false, value -> Government.valueOf(value.toUpperCase()),
+            City::getGovernment, (city, value) -> city.setGovernment((Government) value)),
+    GOVERNOR("governor", "c.governor.name", "governor_name", false, value -> value,
+            city -> city.getGovernor() != null ? city.getGovernor().getName() : null,
+            (city, value) -> city.setGovernor(new Human((String) value)));
+
+    private final String key;
+    private final String path;
+    private final String column;
+    private final boolean nullable;
+    private final Function<String, Object> parser;
+    private final Function<City, Object> accessor;
+    private final BiConsumer<City, Object> writer;
+
+    public static CityField fromKey(String key) {
+        if (key == null) {
+            return null;
+        }
+        for (CityField field : values()) {
+            if (field.key.equalsIgnoreCase(key.trim())) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    public Object parse(String value) {
+        try {
+            return parser.apply(value.trim());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for field " + key);
+        }
+    }
+
+    public boolean isText() {
+        return this == NAME || this == GOVERNOR;
+    }
+
+    public Object extract(City city) {
+        return accessor.apply(city);
+    }
+
+    public void write(City city, Object value) {
+        writer.accept(city, value);
+    }
+
+    private static Coordinates coordinates(City city) {
+        if (city.getCoordinates() == null) {
+            city.setCoordinates(new Coordinates());
+        }
+        return city.getCoordinates();
+    }
+
+    private static Boolean parseBoolean(String value) {
+        String normalized = value.toLowerCase();
+        if (normalized.equals("true") || normalized.equals("yes") || normalized.equals("1")) {
+            return true;
+        }
+        if (normalized.equals("false") || normalized.equals("no") || normalized.equals("0")) {
+            return false;
+        }
+        throw new IllegalArgumentException(value);
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.repository;
+
+import com.example.model.City;
+import com.example.model.Government;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+public class CityFilter {
+
+    public enum Operator {
+        EQ, MIN, MAX, IN, LIKE, SEARCH;
+
+        public static Operator fromKey(String key) {
+            for (Operator operator : values()) {
+                if (operator.name().equalsIgnoreCase(key)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown filter operator: " + key);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Condition {
+        private final CityField field;
+        private final Operator operator;
+        private final List<?> values;
+    }
+
+    static final int MAX_SEARCH_TERMS = 8;
+
+    private static final Comparator<Condition> CANONICAL_ORDER =
+            Comparator.comparing(Condition::getField).thenComparing(Condition::getOperator);
+
+    // kept in field and operator order whatever order the parameters came in, so every filter of the same shape
+    // renders the same statement and reuses Hibernate's parsed plan and the driver's server-side prepared statement
+    private final List<Condition> conditions = new ArrayList<>();
+
+    public List<Condition> getConditions() {
+        return Collections.unmodifiableList(conditions);
+    }
+
+    public boolean isEmpty() {
+        return conditions.isEmpty();
+    }
+
+    public CityFilter add(CityField field, Operator operator, List<?> values) {
+        if ((operator == Operator.LIKE || operator == Operator.SEARCH) && !field.isText()) {
+            throw new IllegalArgumentException("Text matching is only supported for text fields, not " + field.getKey());
+        }
+        if (operator == Operator.SEARCH && searchTerms(values.get(0)).size() > MAX_SEARCH_TERMS) {
+            throw new IllegalArgumentException("At most " + MAX_SEARCH_TERMS + " search terms are supported");
+        }
+        Condition condition = new Condition(field, operator, values);
+        int index = conditions.size();
+        while (index > 0 && CANONICAL_ORDER.compare(conditions.get(index - 1), condition) > 0) {
+            index--;
+        }
+        conditions.add(index, condition);
+        return this;
+    }
+
+    public static CityFilter fromParams(Map<String, String> params) {
+        CityFilter filter = new CityFilter();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            if (value == null || value.trim().isEmpty()) {
+                continue;
+            }
+
+            int dot = key.indexOf('.');
+            if (dot > 0) {
+                CityField field = CityField.fromKey(key.substring(0, dot));
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown filter field: " + key.substring(0, dot));
+                }
+                filter.addTyped(field, Operator.fromKey(key.substring(dot + 1)), value);
+            } else if (key.endsWith("Filter")) {
+                CityField field = CityField.fromKey(key.substring(0, key.length() - "Filter".length()));
+                if (field != null) {
+                    filter.addLegacy(field, value.trim());
+                }
+            }
+        }
+        return filter;
+    }
+
+    public Map<String, String> toParams() {
+        Map<String, String> params = new TreeMap<>();
+        for (Condition condition : conditions) {
+            String key = condition.getField().getKey() + "." + condition.getOperator().name().toLowerCase();
+            String value = condition.getValues().stream().map(String::valueOf).collect(Collectors.joining(","));
+            params.merge(key, value, (a, b) -> a + "," + b);
+        }
+        return params;
+    }
+
+    /**
+     * Everything but the values: filters of the same shape render the same statement with the same parameter names.
+     * SEARCH terms take a power of two of predicates, so the term count adds only a handful of shapes.
+     */
+    public String getShape() {
+        StringJoiner shape = new StringJoiner(",");
+        for (Condition condition : conditions) {
+            String key = condition.getField().name() + " " + condition.getOperator().name();
+            if (condition.getOperator() == Operator.SEARCH) {
+                key += " " + searchSlots(searchTerms(condition.getValues().get(0)).size());
+            } else if (condition.getOperator() == Operator.IN && condition.getValues().isEmpty()) {
+                key += " none";
+            }
+            shape.add(key);
+        }
+        return shape.toString();
+    }
+
+    public void appendTo(StringBuilder hql, Map<String, Object> params) {
+        append(hql, params, false);
+    }
+
+    /**
+     * Binds the parameters {@link #appendTo} would, for a statement of this shape rendered before.
+     */
+    public void bindTo(Map<String, Object> params) {
+        append(null, params, false);
+    }
+
+    /**
+     * Same conditions on the table's columns, for native queries. Enum values are bound by name as they are stored.
+     */
+    void appendColumnsTo(StringBuilder sql, Map<String, Object> params) {
+        append(sql, params, true);
+    }
+
+    // renders into query unless it is null, the parameters are bound either way
+    private void append(StringBuilder query, Map<String, Object> params, boolean columns) {
+        for (Condition condition : conditions) {
+            String column = columns ? condition.getField().getColumn() : condition.getField().getPath();
+            List<?> values = columns ? condition.getValues().stream().map(CityFilter::toColumnValue).toList()
+                    : condition.getValues();
+            String param;
+
+            switch (condition.getOperator()) {
+                case EQ:
+                    param = bind(params, values.get(0));
+                    if (query != null) {
+                        query.append(" AND ").append(column).append(" = :").append(param);
+                    }
+                    break;
+                case MIN:
+                    param = bind(params, values.get(0));
+                    if (query != null) {
+                        query.append(" AND ").append(column).append(" >= :").append(param);
+                    }
+                    break;
+                case MAX:
+                    param = bind(params, values.get(0));
+                    if (query != null) {
+                        query.append(" AND ").append(column).append(" <= :").append(param);
+                    }
+                    break;
+                case IN:
+                    if (values.isEmpty()) {
+                        if (query != null) {
+                            query.append(" AND 1=0");
+                        }
+                    } else {
+                        param = bind(params, values);
+                        if (query != null) {
+                            query.append(" AND ").append(column).append(" IN (:").append(param).append(")");
+                        }
+                    }
+                    break;
+                case LIKE:
+                    param = bind(params, "%" + values.get(0).toString().toLowerCase() + "%");
+                    if (query != null) {
+                        query.append(" AND LOWER(").append(column).append(") LIKE :").append(param);
+                    }
+                    break;
+                case SEARCH:
+                    // every term is a separate LIKE on LOWER(column) so the pg_trgm GIN indexes can serve each one,
+                    // the last term is repeated up to the padded count
+                    List<String> terms = searchTerms(values.get(0));
+                    for (int i = 0; i < searchSlots(terms.size()); i++) {
+                        param = bind(params, "%" + escapeLike(terms.get(Math.min(i, terms.size() - 1))) + "%");
+                        if (query != null) {
+                            query.append(" AND LOWER(").append(column).append(") LIKE :").append(param)
+                                    .append(" ESCAPE '!'");
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    public boolean matches(City city) {
+        for (Condition condition : conditions) {
+            if (!matches(condition, condition.getField().extract(city))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean matches(Condition condition, Object actual) {
+        if (actual == null) {
+            return false;
+        }
+        Object expected = condition.getValues().isEmpty() ? null : condition.getValues().get(0);
+        switch (condition.getOperator()) {
+            case EQ:
+                return ((Comparable) actual).compareTo(expected) == 0;
+            case MIN:
+                return ((Comparable) actual).compareTo(expected) >= 0;
+            case MAX:
+                return ((Comparable) actual).compareTo(expected) <= 0;
+            case IN:
+                return condition.getValues().contains(actual);
+            case LIKE:
+                return actual.toString().toLowerCase().contains(expected.toString().toLowerCase());
+            case SEARCH:
+                String text = actual.toString().toLowerCase();
+                for (String term : searchTerms(expected)) {
+                    if (!text.contains(term)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public boolean appendRelevance(StringBuilder hql, Map<String, Object> params) {
+        List<String> ranks = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (condition.getOperator() != Operator.SEARCH) {
+                continue;
+            }
+            String param = "r" + params.size();
+            params.put(param, condition.getValues().get(0).toString().trim().toLowerCase());
+            if (hql != null) {
+                ranks.add("function('similarity', LOWER(" + condition.getField().getPath() + "), :" + param + ")");
+            }
+        }
+        if (hql == null || ranks.isEmpty()) {
+            return false;
+        }
+        hql.append(String.join(" + ", ranks)).append(" DESC");
+        return true;
+    }
+
+    /**
+     * Binds the parameters {@link #appendRelevance} would, for a statement of this shape rendered before.
+     */
+    public void bindRelevanceTo(Map<String, Object> params) {
+        appendRelevance(null, params);
+    }
+
+    private static String bind(Map<String, Object> params, Object value) {
+        String param = "f" + params.size();
+        params.put(param, value);
+        return param;
+    }
+
+    private static List<String> searchTerms(Object value) {
+        List<String> terms = new ArrayList<>();
+        for (String term : value.toString().toLowerCase().split("\\s+")) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static int searchSlots(int terms) {
+        return terms <= 1 ? terms : Integer.highestOneBit(terms - 1) << 1;
+    }
+
+    private static Object toColumnValue(Object value) {
+        return value instanceof Enum<?> constant ? constant.name() : value;
+    }
+
+    private static String escapeLike(String term) {
+        return term.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+
+    private void addTyped(CityField field, Operator operator, String value) {
+        if (operator == Operator.IN) {
+            List<Object> values = new ArrayList<>();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    values.add(field.parse(item));
+                }
+            }
+            add(field, operator, values);
+        } else if (operator == Operator.LIKE || operator == Operator.SEARCH) {
+            add(field, operator, List.of(value.trim()));
+        } else {
+            add(field, operator, List.of(field.parse(value)));
+        }
+    }
+
+    private void addLegacy(CityField field, String value) {
+        switch (field) {
+            case NAME:
+            case GOVERNOR:
+                add(field, Operator.LIKE, List.of(value));
+                break;
+            case GOVERNMENT:
+                List<Object> matching = new ArrayList<>();
+                for (Government government : Government.values()) {
+                    if (government.name().contains(value.toUpperCase())) {
+                        matching.add(government);
+                    }
+                }
+                add(field, Operator.IN, matching);
+                break;
+            case CAPITAL:
+                try {
+                    add(field, Operator.EQ, List.of(field.parse(value)));
+                } catch (IllegalArgumentException ignored) {
+                    // unknown capital values have always been ignored by the table filter
+                }
+                break;
+            case CREATION_DATE:
+            case ESTABLISHMENT_DATE:
+                addDatePrefix(field, value);
+                break;
+            default:
+                add(field, Operator.EQ, List.of(field.parse(value)));
+                break;
+        }
+    }
+
+    private void addDatePrefix(CityField field, String value) {
+        try {
+            if (value.length() == 4) {
+                int year = Integer.parseInt(value);
+                add(field, Operator.MIN, List.of(LocalDate.of(year, 1, 1)));
+                add(field, Operator.MAX, List.of(LocalDate.of(year, 12, 31)));
+            } else if (value.length() == 7) {
+                YearMonth month = YearMonth.parse(value);
+                add(field, Operator.MIN, List.of(month.atDay(1)));
+                add(field, Operator.MAX, List.of(month.atEndOfMonth()));
+            } else {
+                add(field, Operator.EQ, List.of(LocalDate.parse(value)));
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for field " + field.getKey()
+                    + ", expected yyyy, yyyy-MM or yyyy-MM-dd");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.repository;
+
+import com.example.event.CityChangeEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.hibernate.Session;
+
+import java.io.UncheckedIOException;
+
+/**
+ * Rows of the city_outbox table. They are appended inside the transaction that changes the city, so an event exists
+ * exactly when its change was committed.
+ */
+public final class CityOutbox {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public record Entry(long id, String type, Long cityId, String origin, String payload, long xid) {
+
+        public <T> T payload(Class<T> type) {
+            if (payload == null) {
+                return null;
+            }
+            try {
+                return OBJECT_MAPPER.readValue(payload, type);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public <T> T payload(TypeReference<T> type) {
+            if (payload == null) {
+                return null;
+            }
+            try {
+                return OBJECT_MAPPER.readValue(payload, type);
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private CityOutbox() {
+    }
+
+    static void append(Session session, String type, Long cityId, Object payload) {
+        String json;
+        try {
+            json = payload != null ? OBJECT_MAPPER.writeValueAsString(payload) : null;
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        session.createNativeMutationQuery(
+                        "INSERT INTO city_outbox (type, city_id, origin, payload) VALUES (:type, :cityId, :origin, :payload)")
+                .setParameter("type", type)
+                .setParameter("cityId", cityId, Long.class)
+                .setParameter("origin", CityChangeEvent.LOCAL_NODE)
+                .setParameter("payload", json, String.class)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.repository;
+
+import com.example.model.City;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The columns a write changes, keyed like the filters. A full update lists every column, a PATCH only the ones in
+ * its body, and either is written with a single UPDATE that also checks the expected version when one is given.
+ */
+public class CityPatch {
+    private final Map<CityField, Object> changes = new EnumMap<>(CityField.class);
+    private Long version;
+
+    public Map<CityField, Object> getChanges() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public CityPatch set(CityField field, Object value) {
+        if (field == CityField.ID) {
+            throw new IllegalArgumentException("The id of a city cannot be changed");
+        }
+        if (value == null && !field.isNullable()) {
+            throw new IllegalArgumentException(field.getKey() + " cannot be null");
+        }
+        changes.put(field, value);
+        return this;
+    }
+
+    public CityPatch expectVersion(Long version) {
+        this.version = version;
+        return this;
+    }
+
+    public static CityPatch of(City city) {
+        CityPatch patch = new CityPatch();
+        for (CityField field : CityField.values()) {
+            Object value = field.extract(city);
+            // the creation date is assigned when the city is added, a full update may leave it out
+            if (field == CityField.ID || (field == CityField.CREATION_DATE && value == null)) {
+                continue;
+            }
+            patch.set(field, value);
+        }
+        return patch.expectVersion(city.getVersion());
+    }
+
+    /**
+     * Accepts the field keys of the filters as well as the nested coordinates and governor objects of the city JSON,
+     * so {"population": 5} and {"coordinates": {"x": 10}} both work.
+     */
+    public static CityPatch fromBody(Map<String, Object> body) {
+        CityPatch patch = new CityPatch();
+        for (Map.Entry<String, Object> entry : body.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if ("id".equals(key)) {
+                // the id comes from the path, a body copied from the city may still carry it
+                continue;
+            }
+            if ("version".equals(key)) {
+                patch.expectVersion(value != null ? Long.valueOf(value.toString()) : null);
+            } else if ("coordinates".equals(key) && value instanceof Map<?, ?> coordinates) {
+                if (coordinates.containsKey("x")) {
+                    patch.setParsed(CityField.COORDINATES_X, coordinates.get("x"));
+                }
+                if (coordinates.containsKey("y")) {
+                    patch.setParsed(CityField.COORDINATES_Y, coordinates.get("y"));
+                }
+            } else if ("governor".equals(key) && value instanceof Map<?, ?> governor) {
+                patch.setParsed(CityField.GOVERNOR, governor.get("name"));
+            } else {
+                CityField field = CityField.fromKey(key);
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown field: " + key);
+                }
+                patch.setParsed(field, value);
+            }
+        }
+        return patch;
+    }
+
+    public City applyTo(City city) {
+        City patched = new City();
+        for (CityField field : CityField.values()) {
+            field.write(patched, changes.containsKey(field) ? changes.get(field) : field.extract(city));
+        }
+        return patched;
+    }
+
+    public void appendTo(StringBuilder hql, Map<String, Object> params) {
+        for (Map.Entry<CityField, Object> entry : changes.entrySet()) {
+            String param = "s" + params.size();
+            hql.append(entry.getKey().getPath()).append(" = :").append(param).append(", ");
+            params.put(param, entry.getValue());
+        }
+    }
+
+    void appendColumnsTo(StringBuilder sql, Map<String, Object> params) {
+        for (Map.Entry<CityField, Object> entry : changes.entrySet()) {
+            String column = entry.getKey().getColumn();
+            Object value = entry.getValue();
+            if (value == null) {
+                // an untyped null parameter would not match every column type
+                sql.append(column).append(" = NULL, ");
+                continue;
+            }
+            sql.append(column).append(" = :").append(column).append(", ");
+            params.put(column, value instanceof Enum<?> constant ? constant.name() : value);
+        }
+    }
+
+    public Map<String, Object> toParams() {
+        Map<String, Object> params = new TreeMap<>();
+        changes.forEach((field, value) -> params.put(field.getKey(), value));
+        return params;
+    }
+
+    private void setParsed(CityField field, Object value) {
+        set(field, value != null ? field.parse(value.toString()) : null);
+    }
+}
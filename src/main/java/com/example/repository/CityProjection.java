@@ -0,0 +1,141 @@
+package com.example.repository;
+
+import com.example.model.City;
+import com.example.model.CitySummary;
+import com.example.model.Coordinates;
+import com.example.model.Human;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The columns a list of cities is read with. Without fields every column is selected into a {@link CitySummary},
+ * with fields only those are, into rows keyed like the filters. The id is always part of the rows.
+ */
+public class CityProjection {
+    private static final String SUMMARY = "SELECT new com.example.model.CitySummary(c.id, c.name, c.coordinates.x, "
+            + "c.coordinates.y, c.creationDate, c.area, c.population, c.establishmentDate, c.capital, "
+            + "c.metersAboveSeaLevel, c.timezone, c.carCode, c.government, c.governor.name, c.version) ";
+
+    private final Set<CityField> fields;
+
+    private CityProjection(Set<CityField> fields) {
+        this.fields = fields;
+    }
+
+    public static CityProjection summary() {
+        return new CityProjection(null);
+    }
+
+    /**
+     * Also accepts "coordinates" for both of them. The required fields are added to the ones asked for, for the
+     * values a response needs itself, like the sort value of the next page.
+     */
+    public static CityProjection fromKeys(String keys, CityField... required) {
+        if (keys == null || keys.trim().isEmpty()) {
+            return summary();
+        }
+        Set<CityField> fields = EnumSet.of(CityField.ID);
+        for (CityField field : required) {
+            if (field != null) {
+                fields.add(field);
+            }
+        }
+        for (String key : keys.split(",")) {
+            if (key.trim().isEmpty()) {
+                continue;
+            }
+            if ("coordinates".equalsIgnoreCase(key.trim())) {
+                fields.add(CityField.COORDINATES_X);
+                fields.add(CityField.COORDINATES_Y);
+                continue;
+            }
+            CityField field = CityField.fromKey(key);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown field: " + key.trim());
+            }
+            fields.add(field);
+        }
+        return new CityProjection(fields);
+    }
+
+    public boolean isSummary() {
+        return fields == null;
+    }
+
+    /**
+     * Identifies the projection in cache keys, the fields are listed in a fixed order.
+     */
+    public String getKey() {
+        if (fields == null) {
+            return "";
+        }
+        return fields.stream().map(CityField::getKey).collect(Collectors.joining(","));
+    }
+
+    public String getSelect() {
+        if (fields == null) {
+            return SUMMARY;
+        }
+        return fields.stream().map(CityField::getPath).collect(Collectors.joining(", ", "SELECT ", " "));
+    }
+
+    public List<Object> toRows(List<?> results) {
+        List<Object> rows = new ArrayList<>(results.size());
+        if (fields == null) {
+            rows.addAll(results);
+            return rows;
+        }
+        for (Object result : results) {
+            // a single selected column comes back as the value itself
+            Object[] tuple = result instanceof Object[] columns ? columns : new Object[]{result};
+            Map<String, Object> row = new LinkedHashMap<>();
+            int index = 0;
+            for (CityField field : fields) {
+                row.put(field.getKey(), tuple[index++]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Turns rows into one array per field, which names each field once instead of once per row.
+     */
+    public Map<String, List<Object>> toColumns(List<Object> rows) {
+        Map<String, List<Object>> columns = new LinkedHashMap<>();
+        if (fields == null) {
+            List<City> cities = rows.stream().map(row -> toCity((CitySummary) row)).toList();
+            for (CityField field : CityField.values()) {
+                columns.put(field.getKey(), cities.stream().map(field::extract).toList());
+            }
+            columns.put("version", cities.stream().map(city -> (Object) city.getVersion()).toList());
+            return columns;
+        }
+        for (CityField field : fields) {
+            columns.put(field.getKey(),
+                    rows.stream().map(row -> (Object) ((Map<?, ?>) row).get(field.getKey())).toList());
+        }
+        return columns;
+    }
+
+    public static Object extract(Object row, CityField field) {
+        if (row instanceof Map<?, ?> columns) {
+            return columns.get(field.getKey());
+        }
+        return field.extract(toCity((CitySummary) row));
+    }
+
+    private static City toCity(CitySummary summary) {
+        return new City(summary.id(), summary.name(),
+                new Coordinates(summary.coordinates().x(), summary.coordinates().y()), summary.creationDate(),
+                summary.area(), summary.population(), summary.establishmentDate(), summary.capital(),
+                summary.metersAboveSeaLevel(), summary.timezone(), summary.carCode(), summary.government(),
+                summary.governor() != null ? new Human(summary.governor().name()) : null, summary.version());
+    }
+}
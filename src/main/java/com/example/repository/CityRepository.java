@@ -1,364 +1,789 @@
 package com.example.repository;
 
+import com.example.cache.BoundedCache;
+import com.example.event.CityChangeEvent;
+import com.example.metrics.SlowQueryLog;
 import com.example.model.City;
 import com.example.model.Coordinates;
 import com.example.model.Human;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.query.CommonQueryContract;
+import org.hibernate.query.MutationQuery;
+import org.hibernate.query.NativeQuery;
 import org.hibernate.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
 
 @Repository
+@Transactional(readOnly = true)
 public class CityRepository {
+    private static final Logger log = LoggerFactory.getLogger(CityRepository.class);
+    private static final long OUTBOX_LOCK_KEY = 0x63697479L;
+
+    record Seek(CityField field, boolean descending, Object lastValue, Long afterId) {
+    }
+
+    private static final int STATEMENT_CACHE_SIZE = 1024;
+
     private final SessionFactory sessionFactory;
+    // rendered HQL by statement shape, Hibernate's plan cache then finds the parsed query under the same string
+    private final BoundedCache<String, String> statements =
+            new BoundedCache<>("filterStatements", STATEMENT_CACHE_SIZE, Duration.ofDays(1));
 
     public CityRepository(SessionFactory sessionFactory) {
         this.sessionFactory = sessionFactory;
     }
 
     public City findById(Long id) {
-        try (var session = sessionFactory.openSession()) {
-            return session.get(City.class, id);
+        Session session = sessionFactory.getCurrentSession();
+        return session.get(City.class, id);
+    }
+
+    public List<City> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
         }
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("FROM City c WHERE c.id IN (:ids)", City.class)
+                .setParameterList("ids", ids)
+                .list();
     }
 
-    public void delete(City city) {
-        try (Session session = sessionFactory.openSession()) {
-            Transaction transaction = session.beginTransaction();
-            session.delete(city);
-            transaction.commit();
+    public boolean exists(Long id) {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("SELECT count(c) FROM City c WHERE c.id = :id", Long.class)
+                .setParameter("id", id)
+                .uniqueResult() > 0;
+    }
+
+    /**
+     * Deletes the city with a single statement and returns it as it was, or null when there is no such city or its
+     * version is not the expected one.
+     */
+    @Transactional
+    public City delete(Long id, Long version) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            StringBuilder sql = new StringBuilder("DELETE FROM cities WHERE id = :id");
+            Map<String, Object> params = new HashMap<>();
+            params.put("id", id);
+            appendVersionCheck(sql, params, "version", version);
+            sql.append(" RETURNING *");
+
+            City deleted = returning(session, sql, params);
+            if (deleted != null) {
+                CityOutbox.append(session, CityChangeEvent.CITY_DELETED, id, deleted);
+            }
+            return deleted;
         } catch (Exception e) {
-            System.err.println("Error in delete: " + e.getMessage());
+            log.warn("Error in delete: {}", e.getMessage());
             throw e;
         }
     }
 
-
     public List<Human> findAllGovernors() {
-        try (Session session = sessionFactory.openSession()) {
-            return session.createQuery("SELECT DISTINCT c.governor FROM City c WHERE c.governor IS NOT NULL", Human.class).list();
-        }
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("SELECT DISTINCT c.governor FROM City c WHERE c.governor IS NOT NULL", Human.class).list();
     }
 
     public List<Coordinates> findAllCoordinates() {
-        try (Session session = sessionFactory.openSession()) {
-            return session.createQuery("SELECT DISTINCT c.coordinates FROM City c WHERE c.coordinates IS NOT NULL", Coordinates.class).list();
-        }
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("SELECT DISTINCT c.coordinates FROM City c WHERE c.coordinates IS NOT NULL", Coordinates.class).list();
     }
 
 
+    @Transactional
     public Long save(City city) {
-        Session session = sessionFactory.openSession();
-        Transaction transaction = null;
-        Long id = null;
+        Session session = sessionFactory.getCurrentSession();
+        Long id = (Long) session.save(city);
+        CityOutbox.append(session, CityChangeEvent.CITY_ADDED, id, null);
+        return id;
+    }
+
+    /**
+     * Inserts the cities in JDBC batches and returns the id of the transaction that did.
+     */
+    @Transactional
+    public long saveAll(List<City> cities, int batchSize) {
+        Session session = sessionFactory.getCurrentSession();
+        Integer previousBatchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(batchSize);
+        try {
+            for (City city : cities) {
+                session.persist(city);
+            }
+            CityOutbox.append(session, CityChangeEvent.CITIES_IMPORTED, null, Map.of("imported", cities.size()));
+            session.flush();
+            return currentTransactionId();
+        } finally {
+            session.setJdbcBatchSize(previousBatchSize);
+        }
+    }
 
+    /**
+     * Writes the patched columns and bumps the version with a single statement. The row is locked by the subquery, so
+     * the version check and the previous state it returns are those of the latest committed version. Returns null
+     * when there is no such city or its version is not the expected one.
+     */
+    @Transactional
+    public City update(Long id, CityPatch patch) {
+        Session session = sessionFactory.getCurrentSession();
         try {
-            transaction = session.beginTransaction();
-            id = (Long) session.save(city);
-            transaction.commit();
+            StringBuilder sql = new StringBuilder("UPDATE cities c SET ");
+            Map<String, Object> params = new HashMap<>();
+            patch.appendColumnsTo(sql, params);
+            sql.append("version = prev.version + 1 FROM (SELECT * FROM cities WHERE id = :id FOR UPDATE) prev ")
+                    .append("WHERE c.id = prev.id");
+            params.put("id", id);
+            appendVersionCheck(sql, params, "prev.version", patch.getVersion());
+            sql.append(" RETURNING prev.*");
+
+            City previous = returning(session, sql, params);
+            if (previous != null) {
+                CityOutbox.append(session, CityChangeEvent.CITY_UPDATED, id, previous);
+            }
+            return previous;
         } catch (Exception e) {
-            if (transaction != null) transaction.rollback();
+            log.warn("Error in update: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the patch to every city matching the filter with one UPDATE and records a single outbox entry for the
+     * whole set.
+     */
+    @Transactional
+    public int updateWithFilters(CityFilter filter, CityPatch patch) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            StringBuilder hql = new StringBuilder("UPDATE City c SET ");
+            Map<String, Object> params = new HashMap<>();
+            patch.appendTo(hql, params);
+            hql.append("c.version = c.version + 1 WHERE 1=1");
+            filter.appendTo(hql, params);
+
+            MutationQuery query = session.createMutationQuery(hql.toString());
+            bindParameters(query, params);
+            int updated = query.executeUpdate();
+            if (updated > 0) {
+                CityOutbox.append(session, CityChangeEvent.CITIES_UPDATED, null,
+                        Map.of("updated", updated, "filters", filter.toParams(), "set", patch.toParams()));
+            }
+            return updated;
+        } catch (Exception e) {
+            log.warn("Error in updateWithFilters: {}", e.getMessage());
             throw e;
-        } finally {
-            session.close();
         }
-        return id;
     }
 
-    public void update(City city) {
-        try (Session session = sessionFactory.openSession()) {
-            Transaction transaction = null;
-            transaction = session.beginTransaction();
-            session.update(city);
-            transaction.commit();
+    @Transactional
+    public int deleteWithFilters(CityFilter filter) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            StringBuilder hql = new StringBuilder("DELETE FROM City c WHERE 1=1");
+            Map<String, Object> params = new HashMap<>();
+            filter.appendTo(hql, params);
+
+            MutationQuery query = session.createMutationQuery(hql.toString());
+            bindParameters(query, params);
+            int deleted = query.executeUpdate();
+            if (deleted > 0) {
+                CityOutbox.append(session, CityChangeEvent.CITIES_DELETED, null,
+                        Map.of("deleted", deleted, "filters", filter.toParams()));
+            }
+            return deleted;
+        } catch (Exception e) {
+            log.warn("Error in deleteWithFilters: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Hands the oldest outbox entries to the publisher and deletes them in the same transaction, so a failed publish
+     * leaves them in place for the next attempt. Only one node drains at a time to keep the events in commit order.
+     */
+    @Transactional
+    public int drainOutbox(int limit, Consumer<List<CityOutbox.Entry>> publisher) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            Boolean locked = session.createNativeQuery("SELECT pg_try_advisory_xact_lock(:key)", Boolean.class)
+                    .setParameter("key", OUTBOX_LOCK_KEY)
+                    .uniqueResult();
+            if (!Boolean.TRUE.equals(locked)) {
+                return 0;
+            }
+
+            List<Object[]> rows = session.createNativeQuery(
+                            "SELECT id, type, city_id, origin, payload, xid FROM city_outbox ORDER BY id LIMIT :limit",
+                            Object[].class)
+                    .setParameter("limit", limit)
+                    .list();
+
+            List<CityOutbox.Entry> entries = new ArrayList<>(rows.size());
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                long id = ((Number) row[0]).longValue();
+                Long cityId = row[2] != null ? ((Number) row[2]).longValue() : null;
+                entries.add(new CityOutbox.Entry(id, (String) row[1], cityId, (String) row[3], (String) row[4],
+                        ((Number) row[5]).longValue()));
+                ids.add(id);
+            }
+
+            if (!entries.isEmpty()) {
+                publisher.accept(entries);
+                session.createNativeMutationQuery("DELETE FROM city_outbox WHERE id IN (:ids)")
+                        .setParameterList("ids", ids)
+                        .executeUpdate();
+            }
+            return entries.size();
+        } catch (Exception e) {
+            log.warn("Error in drainOutbox: {}", e.getMessage());
+            throw e;
         }
     }
 
 
     public Double getSumOfTimezones() {
-        try (Session session = sessionFactory.openSession()) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
             Query<Long> sumQuery = session.createQuery("select sum(cast(c.timezone as long)) from City c where c.timezone is not null", Long.class);
             Long result = sumQuery.uniqueResult();
-            System.out.println("Sum query result: " + result);
+            log.debug("Sum query result: {}", result);
 
             return result != null ? result.doubleValue() : 0.0;
 
         } catch (Exception e) {
-            System.err.println("Error in getSumOfTimezones: " + e.getMessage());
+            log.warn("Error in getSumOfTimezones: {}", e.getMessage());
             return 0.0;
         }
     }
 
     public Double getAverageCarCode() {
-        try (var session = sessionFactory.openSession()) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
             Query<Double> query = session.createQuery(
                     "select avg(c.carCode) from City c", Double.class);
             Double result = query.uniqueResult();
             return result != null ? result : 0.0;
         } catch (Exception e) {
-            System.err.println("Error in getAverageCarCode: " + e.getMessage());
+            log.warn("Error in getAverageCarCode: {}", e.getMessage());
             return 0.0;
         }
     }
 
 
-    public List<City> getCitiesWithTimezoneLessThan(Integer timezone){
-        try (Session session = sessionFactory.openSession()) {
-            Query<City> query = session.createQuery("from City c where c.timezone > :timezone", City.class);
-            query.setParameter("timezone", timezone);
-            return query.list();
-        }
+    /**
+     * The sum of timezones, the count and sum of car codes, and the snapshot they were read from. One statement reads
+     * them all, so the snapshot tells exactly which transactions the totals include.
+     */
+    public Object[] getTimezoneAndCarCodeTotals() {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createNativeQuery(
+                "SELECT coalesce(sum(timezone::bigint), 0), count(car_code), coalesce(sum(car_code::bigint), 0), " +
+                        "pg_current_snapshot()::text FROM cities",
+                Object[].class
+        ).uniqueResult();
     }
 
-    public Double calculateDistanceToTheMostPopulatedCity() {
-        try (Session session = sessionFactory.openSession()) {
-
-            Query<Long> maxPopQuery = session.createQuery(
-                    "select max(c.population) from City c where c.population is not null",
-                    Long.class
-            );
-            Long maxPopulation = maxPopQuery.uniqueResult();
-            System.out.println("Max population: " + maxPopulation);
+    /**
+     * The id of the current transaction, in the form pg_current_snapshot() prints it.
+     */
+    public long currentTransactionId() {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createNativeQuery("SELECT pg_current_xact_id()::text::bigint", Long.class).uniqueResult();
+    }
 
-            if (maxPopulation == null) {
-                return 0.0;
-            }
+    public City findMostPopulated() {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("from City c order by c.population desc, c.id", City.class)
+                .setMaxResults(1)
+                .uniqueResult();
+    }
 
-            Query<Object[]> query = session.createQuery(
-                    "select c.coordinates.x, c.coordinates.y, c.name, c.population from City c " +
-                            "where c.population = :maxPopulation and c.coordinates is not null order by c.id",
-                    Object[].class
-            );
-            query.setParameter("maxPopulation", maxPopulation);
-            query.setMaxResults(1);
-            List<Object[]> results = query.list();
+    public City findNewest() {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery(
+                        "from City c where c.establishmentDate is not null order by c.establishmentDate desc, c.id",
+                        City.class)
+                .setMaxResults(1)
+                .uniqueResult();
+    }
 
-            if (results.isEmpty()) {
-                return 0.0;
-            }
+    public List<Object> getCitiesWithTimezoneLessThan(Integer timezone, CityProjection projection){
+        Session session = sessionFactory.getCurrentSession();
+        Query<Object> query = session.createQuery(
+                projection.getSelect() + "from City c where c.timezone > :timezone", Object.class);
+        query.setParameter("timezone", timezone);
+        return projection.toRows(query.list());
+    }
 
-            Object[] result = results.get(0);
-            if (result[0] == null || result[1] == null) {
-                return 0.0;
-            }
+    public Double calculateDistanceToTheMostPopulatedCity() {
+        return distanceToFirst("ORDER BY c.population DESC, c.id", "calculateDistanceToTheMostPopulatedCity");
+    }
 
-            Double x = ((Number) result[0]).doubleValue();
-            Double y = ((Number) result[1]).doubleValue();
+    public Double calculateDistanceToNewestCity() {
+        return distanceToFirst("WHERE c.establishmentDate IS NOT NULL ORDER BY c.establishmentDate DESC, c.id",
+                "calculateDistanceToNewestCity");
+    }
 
-            return Math.sqrt(x * x + y * y);
+    /**
+     * Returns the closest cities to the point, nearest first. The ORDER BY is served by the GiST index on
+     * point(x, y) in schema.sql, which hands out rows by distance without computing it for the whole table.
+     */
+    public List<City> findNearest(double x, double y, int limit) {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createNativeQuery(
+                        "SELECT * FROM cities ORDER BY point(x, y) <-> point(:x, :y), id LIMIT :limit", City.class)
+                .setParameter("x", x)
+                .setParameter("y", y)
+                .setParameter("limit", limit)
+                .list();
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error in calculateDistanceToTheMostPopulatedCity: " + e.getMessage());
-            return 0.0;
-        }
+    public List<City> findWithinRadius(double x, double y, double radius, int limit) {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createNativeQuery(
+                        "SELECT * FROM cities WHERE point(x, y) <@ circle(point(:x, :y), :radius) " +
+                                "ORDER BY point(x, y) <-> point(:x, :y), id LIMIT :limit", City.class)
+                .setParameter("x", x)
+                .setParameter("y", y)
+                .setParameter("radius", radius)
+                .setParameter("limit", limit)
+                .list();
     }
 
-    public Double calculateDistanceToNewestCity() {
-        try (Session session = sessionFactory.openSession()) {
-            Query<Long> countQuery = session.createQuery("select count(c) from City c", Long.class);
-            Long count = countQuery.uniqueResult();
+    public List<City> findWithinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createNativeQuery(
+                        "SELECT * FROM cities WHERE point(x, y) <@ box(point(:minX, :minY), point(:maxX, :maxY)) " +
+                                "ORDER BY id LIMIT :limit", City.class)
+                .setParameter("minX", minX)
+                .setParameter("minY", minY)
+                .setParameter("maxX", maxX)
+                .setParameter("maxY", maxY)
+                .setParameter("limit", limit)
+                .list();
+    }
 
-            if (count == null || count == 0) {
-                System.out.println("No cities found in the database.");
-                return 0.0;
-            }
+    public List<Object[]> findAllLocations() {
+        Session session = sessionFactory.getCurrentSession();
+        return session.createQuery("SELECT c.id, c.coordinates.x, c.coordinates.y FROM City c", Object[].class).list();
+    }
 
-            Query<java.time.LocalDate> maxDateQuery = session.createQuery(
-                    "select max(c.establishmentDate) from City c where c.establishmentDate is not null ",
-                    java.time.LocalDate.class
-            );
-            java.time.LocalDate maxDate = maxDateQuery.uniqueResult();
-            System.out.println("Max establishment date: " + maxDate);
+    public List<City> findPageWithFiltersAndSort(CityFilter filter, String sortBy, String sortDirection,
+                                                 int page, int size) {
+        return findPage("findPageWithFiltersAndSort", "", City.class, filter, sortBy, sortDirection,
+                null, page * size, size);
+    }
 
-            Query<Object[]> query = session.createQuery(
-                    "select c.coordinates.x, c.coordinates.y, c.name from City c " +
-                            "where c.establishmentDate = :maxDate and c.coordinates is not null order by c.id",
-                    Object[].class
-            );
-            query.setParameter("maxDate", maxDate);
-            query.setMaxResults(1);
+    public List<Object> findPageWithFiltersAndSort(CityFilter filter, String sortBy, String sortDirection,
+                                                   int page, int size, CityProjection projection) {
+        return projection.toRows(findPage("findPageWithFiltersAndSort", projection.getSelect(), Object.class,
+                filter, sortBy, sortDirection, null, page * size, size));
+    }
 
-            List<Object[]> results = query.list();
+    public List<Object> findPageAfter(CityFilter filter, String sortBy, String sortDirection,
+                                      String afterValue, Long afterId, int size, CityProjection projection) {
+        if ("coordinates".equalsIgnoreCase(sortBy) || "relevance".equalsIgnoreCase(sortBy)) {
+            throw new IllegalArgumentException("Keyset pagination is not supported for sortBy=" + sortBy);
+        }
+        CityField sortField = CityField.fromKey(sortBy);
+        if (sortField == null) {
+            sortField = CityField.ID;
+        }
 
-            if (results.isEmpty()) {
-                return 0.0;
+        Object lastValue = null;
+        if (sortField != CityField.ID) {
+            if (afterValue != null && !afterValue.trim().isEmpty()) {
+                lastValue = sortField.parse(afterValue);
+            } else if (!sortField.isNullable()) {
+                throw new IllegalArgumentException("afterValue is required when paging by " + sortField.getKey());
             }
+        }
 
-            Object[] result = results.get(0);
-
-            Double x = ((Number) result[0]).doubleValue();
-            Double y = ((Number) result[1]).doubleValue();
-            String cityName = (String) result[2];
-
-            Double distance = Math.sqrt(x * x + y * y);
-            System.out.println("Newest city: " + cityName + " at (" + x + ", " + y + "), distance: " + distance);
+        Seek seek = new Seek(sortField, "desc".equalsIgnoreCase(sortDirection), lastValue, afterId);
+        return projection.toRows(findPage("findPageAfter", projection.getSelect(), Object.class,
+                filter, sortBy, sortDirection, seek, 0, size));
+    }
 
-            return distance;
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public long streamWithFiltersAndSort(CityFilter filter, String sortBy, String sortDirection, int fetchSize,
+                                         Consumer<City> consumer) {
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Map<String, Object> params = new HashMap<>();
+            String hql = statement("", filter, null, sortBy, sortDirection, params);
 
+            // the PostgreSQL driver only honours the fetch size inside a transaction, otherwise it buffers every row
+            session.doWork(connection -> connection.setReadOnly(true));
+            Transaction transaction = session.beginTransaction();
+            try {
+                Query<City> query = session.createQuery(hql, City.class);
+                bindParameters(query, params);
+                query.setFetchSize(fetchSize);
+
+                long count = 0;
+                try (ScrollableResults<City> results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        consumer.accept(results.get());
+                        count++;
+                    }
+                }
+                transaction.commit();
+                return count;
+            } catch (RuntimeException e) {
+                transaction.rollback();
+                throw e;
+            } finally {
+                session.doWork(connection -> connection.setReadOnly(false));
+            }
         } catch (Exception e) {
-            System.err.println("Error in calculateDistanceToNewestCity: " + e.getMessage());
-            return 0.0;
+            log.warn("Error in streamWithFiltersAndSort: {}", e.getMessage());
+            throw e;
         }
     }
 
-    public List<City> findWithFiltersAndSort(Map<String, String> filters, String sortBy, String sortDirection) {
-        try (Session session = sessionFactory.openSession()) {
-            StringBuilder hql = new StringBuilder("FROM City c WHERE 1=1");
+    public long countWithFilters(CityFilter filter) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
             Map<String, Object> params = new HashMap<>();
+            String hql = statement("SELECT count(c) ", filter, null, null, null, params);
 
-            if (filters.get("id") != null && !filters.get("id").trim().isEmpty()) {
-                hql.append(" AND CAST(c.id AS string) LIKE :id");
-                params.put("id", "%" + filters.get("id").trim() + "%");
-            }
+            Query<Long> query = session.createQuery(hql, Long.class);
 
-            if (filters.get("name") != null && !filters.get("name").trim().isEmpty()) {
-                hql.append(" AND LOWER(c.name) LIKE :name");
-                params.put("name", "%" + filters.get("name").trim().toLowerCase() + "%");
-            }
+            bindParameters(query, params);
 
-            if (filters.get("coordinatesX") != null && !filters.get("coordinatesX").trim().isEmpty()) {
-                hql.append(" AND CAST(c.coordinates.x AS string) LIKE :coordinatesX");
-                params.put("coordinatesX", "%" + filters.get("coordinatesX").trim() + "%");
-            }
+            long start = System.nanoTime();
+            Long result = query.uniqueResult();
+            SlowQueryLog.record("countWithFilters", hql, params, System.nanoTime() - start);
+            return result != null ? result : 0L;
+        } catch (Exception e) {
+            log.warn("Error in countWithFilters: {}", e.getMessage());
+            throw e;
+        }
+    }
 
-            if (filters.get("coordinatesY") != null && !filters.get("coordinatesY").trim().isEmpty()) {
-                hql.append(" AND CAST(c.coordinates.y AS string) LIKE :coordinatesY");
-                params.put("coordinatesY", "%" + filters.get("coordinatesY").trim() + "%");
+    /**
+     * Counts the matching cities by every facet in one pass over them, using GROUPING SETS. The empty set gives the
+     * total, and GROUPING() tells a facet's own null value apart from the rows grouped by another facet.
+     */
+    public Map<String, Object> countFacets(CityFilter filter, Set<CityFacet> facets) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            List<CityFacet> order = new ArrayList<>(facets);
+            StringBuilder sql = new StringBuilder("SELECT ");
+            StringJoiner sets = new StringJoiner(", ", " GROUP BY GROUPING SETS ((), ", ")");
+            for (CityFacet facet : order) {
+                sql.append("GROUPING(").append(facet.getFields().get(0).getColumn()).append("), ");
             }
-
-            if (filters.get("creationDate") != null && !filters.get("creationDate").trim().isEmpty()) {
-                hql.append(" AND CAST(c.creationDate AS string) LIKE :creationDate");
-                params.put("creationDate", "%" + filters.get("creationDate").trim() + "%");
+            for (CityFacet facet : order) {
+                StringJoiner columns = new StringJoiner(", ", "(", ")");
+                for (CityField field : facet.getFields()) {
+                    sql.append(field.getColumn()).append(", ");
+                    columns.add(field.getColumn());
+                }
+                sets.add(columns.toString());
             }
+            sql.append("count(*) FROM cities WHERE 1=1");
+            Map<String, Object> params = new HashMap<>();
+            filter.appendColumnsTo(sql, params);
+            sql.append(sets);
 
-            if (filters.get("area") != null && !filters.get("area").trim().isEmpty()) {
-                hql.append(" AND CAST(c.area AS string) LIKE :area");
-                params.put("area", "%" + filters.get("area").trim() + "%");
-            }
+            NativeQuery<Object[]> query = session.createNativeQuery(sql.toString(), Object[].class);
+            bindParameters(query, params);
 
-            if (filters.get("population") != null && !filters.get("population").trim().isEmpty()) {
-                hql.append(" AND CAST(c.population AS string) LIKE :population");
-                params.put("population", "%" + filters.get("population").trim() + "%");
-            }
+            long start = System.nanoTime();
+            List<Object[]> rows = query.list();
+            SlowQueryLog.record("countFacets", sql, params, System.nanoTime() - start);
 
-            if (filters.get("establishmentDate") != null && !filters.get("establishmentDate").trim().isEmpty()) {
-                hql.append(" AND CAST(c.establishmentDate AS string) LIKE :establishmentDate");
-                params.put("establishmentDate", "%" + filters.get("establishmentDate").trim() + "%");
+            long total = 0;
+            Map<String, List<CityFacet.Count>> counts = new LinkedHashMap<>();
+            for (CityFacet facet : order) {
+                counts.put(facet.getKey(), new ArrayList<>());
             }
-
-            if (filters.get("capital") != null && !filters.get("capital").trim().isEmpty()) {
-                String capitalValue = filters.get("capital").trim().toLowerCase();
-                if (capitalValue.equals("true") || capitalValue.equals("yes") || capitalValue.equals("1")) {
-                    hql.append(" AND c.capital = true");
-                } else if (capitalValue.equals("false") || capitalValue.equals("no") || capitalValue.equals("0")) {
-                    hql.append(" AND c.capital = false");
+            for (Object[] row : rows) {
+                long count = ((Number) row[row.length - 1]).longValue();
+                int column = order.size();
+                CityFacet grouped = null;
+                Object value = null;
+                for (int i = 0; i < order.size(); i++) {
+                    CityFacet facet = order.get(i);
+                    if (((Number) row[i]).intValue() == 0) {
+                        grouped = facet;
+                        value = facet == CityFacet.COORDINATES
+                                ? coordinates(row[column], row[column + 1])
+                                : row[column];
+                    }
+                    column += facet.getFields().size();
+                }
+                if (grouped == null) {
+                    total = count;
+                } else {
+                    counts.get(grouped.getKey()).add(new CityFacet.Count(value, count));
                 }
             }
-
-            if (filters.get("metersAboveSeaLevel") != null && !filters.get("metersAboveSeaLevel").trim().isEmpty()) {
-                hql.append(" AND CAST(c.metersAboveSeaLevel AS string) LIKE :metersAboveSeaLevel");
-                params.put("metersAboveSeaLevel", "%" + filters.get("metersAboveSeaLevel").trim() + "%");
+            for (List<CityFacet.Count> values : counts.values()) {
+                values.sort(Comparator.comparingLong(CityFacet.Count::count).reversed()
+                        .thenComparing(count -> String.valueOf(count.value())));
             }
 
-            if (filters.get("timezone") != null && !filters.get("timezone").trim().isEmpty()) {
-                hql.append(" AND CAST(c.timezone AS string) LIKE :timezone");
-                params.put("timezone", "%" + filters.get("timezone").trim() + "%");
-            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("total", total);
+            result.put("facets", counts);
+            return result;
+        } catch (Exception e) {
+            log.warn("Error in countFacets: {}", e.getMessage());
+            throw e;
+        }
+    }
 
-            if (filters.get("carCode") != null && !filters.get("carCode").trim().isEmpty()) {
-                hql.append(" AND CAST(c.carCode AS string) LIKE :carCode");
-                params.put("carCode", "%" + filters.get("carCode").trim() + "%");
-            }
+    private static Map<String, Object> coordinates(Object x, Object y) {
+        Map<String, Object> coordinates = new LinkedHashMap<>();
+        coordinates.put("x", x);
+        coordinates.put("y", y);
+        return coordinates;
+    }
 
-            if (filters.get("government") != null && !filters.get("government").trim().isEmpty()) {
-                hql.append(" AND LOWER(CAST(c.government AS string)) LIKE :government");
-                params.put("government", "%" + filters.get("government").trim().toLowerCase() + "%");
-            }
+    static void appendSeek(StringBuilder hql, Map<String, Object> params, CityField sortField,
+                           boolean descending, Object lastValue, Long afterId) {
+        String operator = descending ? "<" : ">";
+        bindSeek(params, sortField, lastValue, afterId);
+
+        if (sortField == CityField.ID) {
+            hql.append(" AND c.id ").append(operator).append(" :afterId");
+            return;
+        }
 
-            if (filters.get("governor") != null && !filters.get("governor").trim().isEmpty()) {
-                hql.append(" AND LOWER(c.governor.name) LIKE :governor");
-                params.put("governor", "%" + filters.get("governor").trim().toLowerCase() + "%");
+        String column = sortField.getPath();
+
+        // PostgreSQL sorts NULLs last for ASC and first for DESC, the seek predicate has to follow that order
+        if (lastValue == null) {
+            if (descending) {
+                hql.append(" AND ((").append(column).append(" IS NULL AND c.id < :afterId) OR ")
+                        .append(column).append(" IS NOT NULL)");
+            } else {
+                hql.append(" AND ").append(column).append(" IS NULL AND c.id > :afterId");
             }
+            return;
+        }
+
+        hql.append(" AND (").append(column).append(" ").append(operator).append(" :afterValue OR (")
+                .append(column).append(" = :afterValue AND c.id ").append(operator).append(" :afterId)");
+        if (sortField.isNullable() && !descending) {
+            hql.append(" OR ").append(column).append(" IS NULL");
+        }
+        hql.append(")");
+    }
+
+    static void bindSeek(Map<String, Object> params, CityField sortField, Object lastValue, Long afterId) {
+        params.put("afterId", afterId);
+        if (sortField != CityField.ID && lastValue != null) {
+            params.put("afterValue", lastValue);
+        }
+    }
 
-            hql.append(" ORDER BY ");
-            switch (sortBy.toLowerCase()) {
-                case "id":
-                    hql.append("c.id");
-                    break;
-                case "name":
-                    hql.append("c.name");
-                    break;
-                case "coordinatesx":
-                    hql.append("c.coordinates.x");
-                    break;
-                case "coordinatesy":
-                    hql.append("c.coordinates.y");
-                    break;
-                case "coordinates":
-                    hql.append("c.coordinates.x, c.coordinates.y");
-                    break;
-                case "creationdate":
-                    hql.append("c.creationDate");
-                    break;
-                case "area":
-                    hql.append("c.area");
-                    break;
-                case "population":
-                    hql.append("c.population");
-                    break;
-                case "establishmentdate":
-                    hql.append("c.establishmentDate");
-                    break;
-                case "capital":
-                    hql.append("c.capital");
-                    break;
-                case "metersabovesealevel":
-                    hql.append("c.metersAboveSeaLevel");
-                    break;
-                case "timezone":
-                    hql.append("c.timezone");
-                    break;
-                case "carcode":
-                    hql.append("c.carCode");
-                    break;
-                case "government":
-                    hql.append("c.government");
-                    break;
-                case "governor":
-                    hql.append("c.governor.name");
-                    break;
-                default:
-                    hql.append("c.id");
-                    break;
+    /**
+     * The HQL of a filtered query, rendered once per shape and taken from the cache afterwards. Only the parameters
+     * are bound on every call, in the order the statement was rendered in so they get the same names.
+     */
+    String statement(String select, CityFilter filter, Seek seek, String sortBy, String sortDirection,
+                     Map<String, Object> params) {
+        boolean descending = "desc".equalsIgnoreCase(sortDirection);
+        StringBuilder key = new StringBuilder(select).append('|').append(filter.getShape());
+        if (seek != null) {
+            key.append('|').append(seek.field()).append(seek.descending() ? " DESC" : " ASC")
+                    .append(seek.lastValue() == null ? " NULL" : "");
+        }
+        if (sortBy != null) {
+            key.append('|').append(sortBy.toLowerCase()).append(descending ? " DESC" : " ASC");
+        }
+
+        String hql = statements.get(key.toString(), () -> {
+            StringBuilder rendered = new StringBuilder(select).append("FROM City c WHERE 1=1");
+            Map<String, Object> unused = new HashMap<>();
+            filter.appendTo(rendered, unused);
+            if (seek != null) {
+                appendSeek(rendered, unused, seek.field(), seek.descending(), seek.lastValue(), seek.afterId());
+            }
+            if (sortBy != null) {
+                appendOrderBy(rendered, unused, filter, sortBy, sortDirection);
             }
+            return rendered.toString();
+        });
 
-            if ("desc".equalsIgnoreCase(sortDirection)) {
-                hql.append(" DESC");
-            } else {
-                hql.append(" ASC");
+        filter.bindTo(params);
+        if (seek != null) {
+            bindSeek(params, seek.field(), seek.lastValue(), seek.afterId());
+        }
+        if ("relevance".equalsIgnoreCase(sortBy)) {
+            filter.bindRelevanceTo(params);
+        }
+        return hql;
+    }
+
+    private Double distanceToFirst(String order, String method) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            // a single row read off the index behind the ORDER BY, not an aggregate over the table
+            List<Object[]> results = session.createQuery(
+                            "SELECT c.coordinates.x, c.coordinates.y FROM City c " + order, Object[].class)
+                    .setMaxResults(1)
+                    .list();
+            if (results.isEmpty() || results.get(0)[0] == null || results.get(0)[1] == null) {
+                return 0.0;
             }
+            double x = ((Number) results.get(0)[0]).doubleValue();
+            double y = ((Number) results.get(0)[1]).doubleValue();
+            return Math.sqrt(x * x + y * y);
+        } catch (Exception e) {
+            log.warn("Error in {}: {}", method, e.getMessage());
+            return 0.0;
+        }
+    }
 
-            Query<City> query = session.createQuery(hql.toString(), City.class);
+    private void appendVersionCheck(StringBuilder sql, Map<String, Object> params, String column, Long version) {
+        if (version != null) {
+            sql.append(" AND ").append(column).append(" = :version");
+            params.put("version", version);
+        }
+    }
 
-            for (Map.Entry<String, Object> entry : params.entrySet()) {
+    private City returning(Session session, StringBuilder sql, Map<String, Object> params) {
+        NativeQuery<City> query = session.createNativeQuery(sql.toString(), City.class);
+        query.addSynchronizedEntityClass(City.class);
+        bindParameters(query, params);
+        List<City> rows = query.list();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        // the returned row is a state that no longer exists, it must not be flushed or handed out by the session
+        City city = rows.get(0);
+        session.detach(city);
+        return city;
+    }
+
+    private void bindParameters(CommonQueryContract query, Map<String, Object> params) {
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            if (entry.getValue() instanceof Collection<?> values) {
+                query.setParameterList(entry.getKey(), values);
+            } else {
                 query.setParameter(entry.getKey(), entry.getValue());
             }
+        }
+    }
 
-            System.out.println("Executing HQL: " + hql.toString());
-            System.out.println("Parameters: " + params);
+    private <T> List<T> findPage(String name, String select, Class<T> type, CityFilter filter,
+                                 String sortBy, String sortDirection, Seek seek, int firstResult, int size) {
+        Session session = sessionFactory.getCurrentSession();
+        try {
+            Map<String, Object> params = new HashMap<>();
+            String hql = statement(select, filter, seek, sortBy, sortDirection, params);
 
-            List<City> result = query.list();
-            System.out.println("Found " + result.size() + " cities");
-            return result;
+            Query<T> query = session.createQuery(hql, type);
+
+            bindParameters(query, params);
+
+            query.setFirstResult(firstResult);
+            query.setMaxResults(size);
 
+            log.debug("Executing HQL: {} with {} [first {}, size {}]", hql, params, firstResult, size);
+
+            long start = System.nanoTime();
+            List<T> result = query.list();
+            SlowQueryLog.record(name, hql, params, System.nanoTime() - start);
+            return result;
         } catch (Exception e) {
-            System.err.println("Error in findWithFiltersAndSort: " + e.getMessage());
-            return List.of();
+            log.warn("Error in {}: {}", name, e.getMessage());
+            throw e;
+        }
+    }
+
+    private static void appendOrderBy(StringBuilder hql, Map<String, Object> params, CityFilter filter,
+                               String sortBy, String sortDirection) {
+        String direction = "desc".equalsIgnoreCase(sortDirection) ? " DESC" : " ASC";
+
+        hql.append(" ORDER BY ");
+        switch (sortBy.toLowerCase()) {
+            case "relevance":
+                if (filter.appendRelevance(hql, params)) {
+                    hql.append(", c.id ASC");
+                } else {
+                    hql.append("c.id").append(direction);
+                }
+                return;
+            case "id":
+                hql.append("c.id");
+                break;
+            case "name":
+                hql.append("c.name");
+                break;
+            case "coordinatesx":
+                hql.append("c.coordinates.x");
+                break;
+            case "coordinatesy":
+                hql.append("c.coordinates.y");
+                break;
+            case "coordinates":
+                hql.append("c.coordinates.x").append(direction).append(", c.coordinates.y");
+                break;
+            case "creationdate":
+                hql.append("c.creationDate");
+                break;
+            case "area":
+                hql.append("c.area");
+                break;
+            case "population":
+                hql.append("c.population");
+                break;
+            case "establishmentdate":
+                hql.append("c.establishmentDate");
+                break;
+            case "capital":
+                hql.append("c.capital");
+                break;
+            case "metersabovesealevel":
+                hql.append("c.metersAboveSeaLevel");
+                break;
+            case "timezone":
+                hql.append("c.timezone");
+                break;
+            case "carcode":
+                hql.append("c.carCode");
+                break;
+            case "government":
+                hql.append("c.government");
+                break;
+            case "governor":
+                hql.append("c.governor.name");
+                break;
+            default:
+                hql.append("c.id").append(direction);
+                return;
+        }
+        hql.append(direction);
+
+        if (!"id".equalsIgnoreCase(sortBy)) {
+            hql.append(", c.id").append(direction);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package com.example.repository;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets only as many transactional calls run at once as the pool has connections, so thousands of virtual threads
+ * queue here in order instead of all racing for a connection. Calls nested in one that already holds a permit pass
+ * straight through.
+ */
+public class DatabaseConcurrencyLimiter implements MethodInterceptor {
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final long timeoutMillis;
+    private final ThreadLocal<Boolean> holding = new ThreadLocal<>();
+
+    public DatabaseConcurrencyLimiter(int maxConcurrency, long timeoutMillis) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (holding.get() != null) {
+            return invocation.proceed();
+        }
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new TransientDataAccessResourceException("No database capacity within " + timeoutMillis
+                    + " ms, " + permits.getQueueLength() + " calls are waiting");
+        }
+        holding.set(Boolean.TRUE);
+        try {
+            return invocation.proceed();
+        } finally {
+            holding.remove();
+            permits.release();
+        }
+    }
+
+    public int getInUse() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.repository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A PostgreSQL snapshot as pg_current_snapshot() prints it, xmin:xmax:xip_list. It tells whether the changes of a
+ * transaction were visible to the statement that took it.
+ */
+public final class TransactionSnapshot {
+    private final long xmin;
+    private final long xmax;
+    private final Set<Long> inProgress = new HashSet<>();
+
+    private TransactionSnapshot(long xmin, long xmax) {
+        this.xmin = xmin;
+        this.xmax = xmax;
+    }
+
+    public static TransactionSnapshot parse(String text) {
+        String[] parts = text.split(":", -1);
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a transaction snapshot: " + text);
+        }
+        TransactionSnapshot snapshot = new TransactionSnapshot(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+        for (String xid : parts[2].split(",")) {
+            if (!xid.isEmpty()) {
+                snapshot.inProgress.add(Long.parseLong(xid));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Whether the transaction had committed when the snapshot was taken, so what it wrote is already counted in it.
+     */
+    public boolean includes(long xid) {
+        return xid < xmin || (xid < xmax && !inProgress.contains(xid));
+    }
+}
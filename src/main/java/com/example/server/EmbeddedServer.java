@@ -0,0 +1,132 @@
+package com.example.server;
+
+import com.example.config.WebAppInitializer;
+import com.example.metrics.StartupTimings;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.websocket.server.WsSci;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the application in an embedded Tomcat instead of a container, for local runs and load tests that should not
+ * depend on what container is installed. Configured like the WAR through -Dcities.* properties, which can also be
+ * kept in -Dcities.config (cities.properties in the working directory by default). The data source defaults to the
+ * pooled one, -Dcities.db.url and friends point it at the database.
+ */
+public final class EmbeddedServer {
+    private static final List<String> WARMUP_PATHS = List.of(
+            "/api/cities/all?page=0&size=20",
+            "/api/cities/get-by-id/1",
+            "/api/cities/facets",
+            "/api/cities/distance-to-most-populated");
+
+    private EmbeddedServer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        // before the first logger, so the log level can come from the file too
+        loadConfig();
+        Logger log = LoggerFactory.getLogger(EmbeddedServer.class);
+        if (System.getProperty("cities.datasource") == null) {
+            // there is no container to provide the JNDI data source
+            System.setProperty("cities.datasource", "pooled");
+        }
+
+        int port = Integer.getInteger("cities.server.port", 8080);
+        // the path the frontend's development proxy expects the WAR under
+        String contextPath = System.getProperty("cities.server.contextPath", "/TestSborka-1.0.0");
+
+        long start = System.nanoTime();
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("cities-tomcat").toString());
+        tomcat.setPort(port);
+        tomcat.getConnector();
+        Context context = tomcat.addContext(contextPath, Files.createTempDirectory("cities-docbase").toString());
+        context.addServletContainerInitializer(new WsSci(), null);
+        context.addServletContainerInitializer(
+                (classes, servletContext) -> new WebAppInitializer().onStartup(servletContext), null);
+        tomcat.start();
+        StartupTimings.record("embedded tomcat and application started", System.nanoTime() - start);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(tomcat), "cities-shutdown"));
+
+        String base = "http://localhost:" + port + contextPath;
+        if (Boolean.parseBoolean(System.getProperty("cities.server.warmup", "true"))) {
+            warmUp(base, log);
+        }
+        StartupTimings.record("ready since JVM start",
+                TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime()));
+        log.info("Cities API listening on {}/api/cities", base);
+
+        if (Boolean.getBoolean("cities.server.exitAfterWarmup")) {
+            // a training run for the class data sharing archive, which is written when the JVM exits
+            System.exit(0);
+        }
+        tomcat.getServer().await();
+    }
+
+    /**
+     * The first call of each endpoint loads and links the classes behind it and compiles its HQL, which would
+     * otherwise land on the first real client.
+     */
+    private static void warmUp(String base, Logger log) {
+        HttpClient client = HttpClient.newHttpClient();
+        long start = System.nanoTime();
+        for (String path : WARMUP_PATHS) {
+            long requestStart = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(base + path)).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                log.debug("Warm-up {} answered {} in {} ms", path, response.statusCode(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStart));
+            } catch (IOException e) {
+                log.warn("Warm-up {} failed: {}", path, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        StartupTimings.record("first requests", System.nanoTime() - start);
+    }
+
+    private static void loadConfig() throws IOException {
+        Path file = Path.of(System.getProperty("cities.config", "cities.properties"));
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        // the command line wins over the file
+        for (String name : properties.stringPropertyNames()) {
+            if (System.getProperty(name) == null) {
+                System.setProperty(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    private static void stop(Tomcat tomcat) {
+        try {
+            tomcat.stop();
+            tomcat.destroy();
+        } catch (LifecycleException e) {
+            LoggerFactory.getLogger(EmbeddedServer.class).warn("Embedded Tomcat did not stop cleanly", e);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.repository.CityRepository;
+import com.example.repository.TransactionSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Running totals and leaders behind the special-function endpoints. The database is never queried under the lock:
+ * changes are applied by after-commit callbacks of transactions that may still hold a database permit, and the
+ * endpoints' threads may be virtual. Changes that arrive while a load is running are kept and replayed onto its
+ * result.
+ */
+@Component
+public class CityAggregateStore implements InitializingBean {
+    private static final Logger log = LoggerFactory.getLogger(CityAggregateStore.class);
+    private static final double TOLERANCE = 1e-9;
+
+    private record Delta(City previous, City current, long xid) {
+    }
+
+    private final CityRepository cityRepository;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition loadFinished = lock.newCondition();
+
+    private boolean seeded;
+    // the transactions the totals were read after, their changes must not be applied a second time
+    private TransactionSnapshot seedSnapshot;
+    private long timezoneSum;
+    private long carCodeCount;
+    private long carCodeSum;
+    private final Leader<Long> mostPopulated = new Leader<>(City::getPopulation);
+    private final Leader<LocalDate> newest = new Leader<>(City::getEstablishmentDate);
+
+    private int loads;
+    private long invalidations;
+    private final List<Delta> pending = new ArrayList<>();
+
+    public CityAggregateStore(CityRepository cityRepository) {
+        this.cityRepository = cityRepository;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            seed();
+        } catch (Exception e) {
+            log.warn("Aggregate store will be seeded on first use: {}", e.getMessage());
+        }
+    }
+
+    public void seed() {
+        long startInvalidations = startLoad();
+        boolean loaded = false;
+        Object[] totals = null;
+        City mostPopulatedCity = null;
+        City newestCity = null;
+        try {
+            totals = cityRepository.getTimezoneAndCarCodeTotals();
+            mostPopulatedCity = cityRepository.findMostPopulated();
+            newestCity = cityRepository.findNewest();
+            loaded = true;
+        } finally {
+            lock.lock();
+            try {
+                if (loaded) {
+                    timezoneSum = ((Number) totals[0]).longValue();
+                    carCodeCount = ((Number) totals[1]).longValue();
+                    carCodeSum = ((Number) totals[2]).longValue();
+                    seedSnapshot = TransactionSnapshot.parse((String) totals[3]);
+                    mostPopulated.reset(mostPopulatedCity);
+                    newest.reset(newestCity);
+                    for (Delta delta : pending) {
+                        if (!seedSnapshot.includes(delta.xid())) {
+                            applyTotals(delta);
+                        }
+                        // the leaders were read after the snapshot, offering them a change again does no harm
+                        mostPopulated.apply(delta);
+                        newest.apply(delta);
+                    }
+                    // an invalidation during the load may have come after the snapshot, the next read seeds again
+                    seeded = invalidations == startInvalidations;
+                }
+                finishLoad();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Applies a city added by transaction xid, unless the totals were seeded after it committed and already count it.
+     * A null xid stands for changes of unknown transactions, they reseed the store.
+     */
+    public void onAdded(City city, Long xid) {
+        onChanged(null, city, xid);
+    }
+
+    public void onUpdated(City previous, City current, Long xid) {
+        onChanged(previous, current, xid);
+    }
+
+    public void onDeleted(City city, Long xid) {
+        onChanged(city, null, xid);
+    }
+
+    /**
+     * Drops the running totals so the next read reseeds them, used when a change arrives without its previous state.
+     */
+    public void invalidate() {
+        lock.lock();
+        try {
+            seeded = false;
+            invalidations++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Double getSumOfTimezones() {
+        ensureSeeded();
+        lock.lock();
+        try {
+            return (double) timezoneSum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Double getAverageCarCode() {
+        ensureSeeded();
+        lock.lock();
+        try {
+            return carCodeCount > 0 ? (double) carCodeSum / carCodeCount : 0.0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Double getDistanceToMostPopulated() {
+        ensureSeeded();
+        return distanceTo(mostPopulated, cityRepository::findMostPopulated);
+    }
+
+    public Double getDistanceToNewest() {
+        ensureSeeded();
+        return distanceTo(newest, cityRepository::findNewest);
+    }
+
+    public Map<String, Object> verify() {
+        Map<String, Double> cached = new HashMap<>();
+        cached.put("sumOfTimezones", getSumOfTimezones());
+        cached.put("averageCarCode", getAverageCarCode());
+        cached.put("distanceToMostPopulated", getDistanceToMostPopulated());
+        cached.put("distanceToNewest", getDistanceToNewest());
+
+        Map<String, Double> database = new HashMap<>();
+        database.put("sumOfTimezones", cityRepository.getSumOfTimezones());
+        database.put("averageCarCode", cityRepository.getAverageCarCode());
+        database.put("distanceToMostPopulated", cityRepository.calculateDistanceToTheMostPopulatedCity());
+        database.put("distanceToNewest", cityRepository.calculateDistanceToNewestCity());
+
+        boolean consistent = true;
+        for (Map.Entry<String, Double> entry : database.entrySet()) {
+            if (Math.abs(entry.getValue() - cached.get(entry.getKey())) > TOLERANCE) {
+                consistent = false;
+            }
+        }
+
+        if (!consistent) {
+            log.warn("Aggregate store drifted from the database, reseeding: {} vs {}", cached, database);
+            seed();
+        }
+
+        Map<String, Object> report = new HashMap<>();
+        report.put("consistent", consistent);
+        report.put("cached", cached);
+        report.put("database", database);
+        return report;
+    }
+
+    private void onChanged(City previous, City current, Long xid) {
+        lock.lock();
+        try {
+            if (xid == null) {
+                seeded = false;
+                invalidations++;
+                return;
+            }
+            Delta delta = new Delta(previous, current, xid);
+            if (loads > 0) {
+                pending.add(delta);
+            }
+            if (seeded && !seedSnapshot.includes(xid)) {
+                applyTotals(delta);
+                mostPopulated.apply(delta);
+                newest.apply(delta);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ensureSeeded() {
+        lock.lock();
+        try {
+            // a seed already under way serves this read too
+            while (!seeded && loads > 0) {
+                loadFinished.awaitUninterruptibly();
+            }
+            if (seeded) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        seed();
+    }
+
+    private <T extends Comparable<? super T>> double distanceTo(Leader<T> leader, Supplier<City> reload) {
+        lock.lock();
+        try {
+            if (!leader.stale) {
+                return leader.distance;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        startLoad();
+        boolean loaded = false;
+        City city = null;
+        try {
+            city = reload.get();
+            loaded = true;
+        } finally {
+            lock.lock();
+            try {
+                if (loaded) {
+                    leader.reset(city);
+                    for (Delta delta : pending) {
+                        leader.apply(delta);
+                    }
+                }
+                finishLoad();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        lock.lock();
+        try {
+            return leader.distance;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long startLoad() {
+        lock.lock();
+        try {
+            loads++;
+            return invalidations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // called with the lock held
+    private void finishLoad() {
+        if (--loads == 0) {
+            pending.clear();
+        }
+        loadFinished.signalAll();
+    }
+
+    private void applyTotals(Delta delta) {
+        if (delta.previous() != null) {
+            apply(delta.previous(), -1);
+        }
+        if (delta.current() != null) {
+            apply(delta.current(), 1);
+        }
+    }
+
+    private void apply(City city, int sign) {
+        if (city.getTimezone() != null) {
+            timezoneSum += sign * city.getTimezone();
+        }
+        if (city.getCarCode() != null) {
+            carCodeCount += sign;
+            carCodeSum += sign * city.getCarCode();
+        }
+    }
+
+    private static double distance(Coordinates coordinates) {
+        if (coordinates == null || coordinates.getX() == null || coordinates.getY() == null) {
+            return 0.0;
+        }
+        double x = coordinates.getX();
+        double y = coordinates.getY();
+        return Math.sqrt(x * x + y * y);
+    }
+
+    private static final class Leader<T extends Comparable<? super T>> {
+        private final Function<City, T> property;
+        private Long id;
+        private T value;
+        private double distance;
+        private boolean stale;
+
+        Leader(Function<City, T> property) {
+            this.property = property;
+        }
+
+        void reset(City city) {
+            this.id = city != null ? city.getId() : null;
+            this.value = city != null ? property.apply(city) : null;
+            this.distance = city != null ? distance(city.getCoordinates()) : 0.0;
+            this.stale = false;
+        }
+
+        void apply(Delta delta) {
+            if (delta.current() != null) {
+                offer(delta.current().getId(), property.apply(delta.current()), delta.current().getCoordinates());
+            } else {
+                remove(delta.previous().getId());
+            }
+        }
+
+        void offer(Long id, T value, Coordinates coordinates) {
+            if (stale) {
+                return;
+            }
+            boolean isLeader = this.id != null && this.id.equals(id);
+            if (value == null) {
+                stale = isLeader;
+                return;
+            }
+            if (isLeader && value.compareTo(this.value) < 0) {
+                stale = true;
+                return;
+            }
+            int comparison = this.value == null ? 1 : value.compareTo(this.value);
+            if (isLeader || comparison > 0 || (comparison == 0 && id < this.id)) {
+                this.id = id;
+                this.value = value;
+                this.distance = distance(coordinates);
+            }
+        }
+
+        void remove(Long id) {
+            if (this.id != null && this.id.equals(id)) {
+                stale = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.service;
+
+import com.example.cache.BoundedCache;
+import com.example.model.City;
+import com.example.repository.CityFacet;
+import com.example.repository.CityFilter;
+import com.example.repository.CityProjection;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+@Component
+public class CityCache {
+    private static final int CITY_CACHE_SIZE = Integer.getInteger("cities.cache.byId.size", 10_000);
+    private static final int RESULT_CACHE_SIZE = Integer.getInteger("cities.cache.results.size", 1_000);
+    private static final Duration TTL = Duration.ofSeconds(Long.getLong("cities.cache.ttlSeconds", 30));
+
+    private final BoundedCache<Long, City> cities = new BoundedCache<>("cityById", CITY_CACHE_SIZE, TTL);
+    private final BoundedCache<PageKey, CachedPage> pages = new BoundedCache<>("cityPages", RESULT_CACHE_SIZE, TTL);
+    private final BoundedCache<Map<String, String>, CachedCount> counts = new BoundedCache<>("cityCounts", RESULT_CACHE_SIZE, TTL);
+    private final BoundedCache<FacetKey, CachedFacets> facets = new BoundedCache<>("cityFacets", RESULT_CACHE_SIZE, TTL);
+
+    // moves on with every invalidation, the start time keeps the tags of another run or instance from matching
+    private final String epoch = Long.toHexString(System.currentTimeMillis());
+    private final AtomicLong changes = new AtomicLong();
+
+    public City getCity(Long id, Supplier<City> loader) {
+        return cities.get(id, loader);
+    }
+
+    public List<Object> getPage(CityFilter filter, String sortBy, String sortDirection, int page, int size,
+                                Long afterId, String afterValue, CityProjection projection,
+                                Supplier<List<Object>> loader) {
+        PageKey key = new PageKey(filter.toParams(), sortBy.toLowerCase(), sortDirection.toLowerCase(),
+                page, size, afterId, afterValue, projection.getKey());
+        return pages.get(key, () -> new CachedPage(filter, List.copyOf(loader.get()))).rows();
+    }
+
+    public long getCount(CityFilter filter, Supplier<Long> loader) {
+        return counts.get(filter.toParams(), () -> new CachedCount(filter, loader.get())).count();
+    }
+
+    public Map<String, Object> getFacets(CityFilter filter, Set<CityFacet> facetSet,
+                                         Supplier<Map<String, Object>> loader) {
+        FacetKey key = new FacetKey(filter.toParams(), Set.copyOf(facetSet));
+        return facets.get(key, () -> new CachedFacets(filter, loader.get())).facets();
+    }
+
+    /**
+     * Identifies what this instance knows of the cities, for ETags. It is read before the data it tags, so a change
+     * racing with the read can only make the tag older than the data, never newer.
+     */
+    public String getChangeTag() {
+        return epoch + "-" + changes.get();
+    }
+
+    public void onChanged(City previous, City current) {
+        changes.incrementAndGet();
+        Long id = current != null ? current.getId() : previous.getId();
+        cities.invalidate(id);
+        pages.invalidateIf((key, page) -> affects(page.filter(), previous, current));
+        counts.invalidateIf((key, count) -> affects(count.filter(), previous, current));
+        facets.invalidateIf((key, cached) -> affects(cached.filter(), previous, current));
+    }
+
+    public void onRemoteChanged(Long id) {
+        changes.incrementAndGet();
+        // without the previous version there is no telling which cached results held the city
+        if (id != null) {
+            cities.invalidate(id);
+        }
+        pages.clear();
+        counts.clear();
+        facets.clear();
+    }
+
+    public void clear() {
+        changes.incrementAndGet();
+        cities.clear();
+        pages.clear();
+        counts.clear();
+        facets.clear();
+    }
+
+    public List<Map<String, Object>> stats() {
+        return List.of(cities.stats(), pages.stats(), counts.stats(), facets.stats());
+    }
+
+    private static boolean affects(CityFilter filter, City previous, City current) {
+        return (previous != null && filter.matches(previous)) || (current != null && filter.matches(current));
+    }
+
+    private record PageKey(Map<String, String> filter, String sortBy, String sortDirection, int page, int size,
+                           Long afterId, String afterValue, String fields) {
+    }
+
+    private record CachedPage(CityFilter filter, List<Object> rows) {
+    }
+
+    private record CachedCount(CityFilter filter, long count) {
+    }
+
+    private record FacetKey(Map<String, String> filter, Set<CityFacet> facets) {
+    }
+
+    private record CachedFacets(CityFilter filter, Map<String, Object> facets) {
+    }
+}
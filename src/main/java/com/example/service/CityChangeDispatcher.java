@@ -0,0 +1,55 @@
+package com.example.service;
+
+import com.example.event.CityChangeEvent;
+import com.example.event.CityEventBus;
+import com.example.websocket.CityWebSocketHandler;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Fans every city change out to this node's WebSocket clients. Changes made on another node also have to be applied
+ * to the local cache and aggregates, which this node's own writes keep up to date directly. That goes by the origin of
+ * the change, another node relaying this node's addition must not get it counted twice.
+ */
+@Component
+public class CityChangeDispatcher {
+    private final CityWebSocketHandler webSocketHandler;
+    private final CityAggregateStore aggregateStore;
+    private final CityCache cityCache;
+
+    public CityChangeDispatcher(CityEventBus eventBus, CityWebSocketHandler webSocketHandler,
+                                CityAggregateStore aggregateStore, CityCache cityCache) {
+        this.webSocketHandler = webSocketHandler;
+        this.aggregateStore = aggregateStore;
+        this.cityCache = cityCache;
+        eventBus.subscribe(this::onEvents);
+    }
+
+    private void onEvents(List<CityChangeEvent> events) {
+        for (CityChangeEvent event : events) {
+            if (event.isRemote()) {
+                applyRemote(event);
+            }
+            if (event.isBulk()) {
+                webSocketHandler.broadcastUpdate(event.getType(), event.getData());
+            } else {
+                webSocketHandler.broadcastCityChange(event.getType(), event.getId(), event.getPrevious(),
+                        event.getCurrent());
+            }
+        }
+    }
+
+    private void applyRemote(CityChangeEvent event) {
+        if (event.isBulk()) {
+            cityCache.clear();
+            aggregateStore.invalidate();
+        } else if (CityChangeEvent.CITY_ADDED.equals(event.getType())) {
+            cityCache.onChanged(null, event.getCurrent());
+            aggregateStore.onAdded(event.getCurrent(), event.getXid());
+        } else {
+            cityCache.onRemoteChanged(event.getId());
+            aggregateStore.invalidate();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.repository.CityField;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+public abstract class CityExportWriter {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    public abstract String getContentType();
+
+    public abstract String getFileExtension();
+
+    public abstract void write(City city) throws IOException;
+
+    public abstract void finish() throws IOException;
+
+    public static CityExportWriter forFormat(String format, OutputStream output) throws IOException {
+        switch (format.toLowerCase()) {
+            case "ndjson":
+                return new NdjsonWriter(output);
+            case "csv":
+                return new CsvWriter(output);
+            default:
+                throw new IllegalArgumentException("Unsupported export format: " + format);
+        }
+    }
+
+    private static class NdjsonWriter extends CityExportWriter {
+        private final OutputStream output;
+        private final ObjectWriter writer = OBJECT_MAPPER.writerFor(City.class);
+
+        NdjsonWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public String getContentType() {
+            return "application/x-ndjson";
+        }
+
+        @Override
+        public String getFileExtension() {
+            return "ndjson";
+        }
+
+        @Override
+        public void write(City city) throws IOException {
+            output.write(writer.writeValueAsBytes(city));
+            output.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            output.flush();
+        }
+    }
+
+    private static class CsvWriter extends CityExportWriter {
+        private final Writer writer;
+
+        CsvWriter(OutputStream output) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            CityField[] fields = CityField.values();
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(fields[i].getKey());
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/csv";
+        }
+
+        @Override
+        public String getFileExtension() {
+            return "csv";
+        }
+
+        @Override
+        public void write(City city) throws IOException {
+            CityField[] fields = CityField.values();
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = fields[i].extract(city);
+                if (value != null) {
+                    writer.write(escape(value.toString()));
+                }
+            }
+            writer.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+}
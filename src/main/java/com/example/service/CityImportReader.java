@@ -0,0 +1,224 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.model.Government;
+import com.example.model.Human;
+import com.example.repository.CityField;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+public abstract class CityImportReader {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Getter
+    @AllArgsConstructor
+    public static class Row {
+        private final int number;
+        private final City city;
+        private final String error;
+    }
+
+    protected int rowNumber;
+
+    /**
+     * Returns the next row, or null once the input is exhausted. Rows that cannot be parsed are returned with an error
+     * instead of a city so the import can report them and carry on.
+     */
+    public abstract Row next() throws IOException;
+
+    public static CityImportReader forContentType(String contentType, InputStream input) throws IOException {
+        String type = contentType != null ? contentType.toLowerCase() : "";
+        if (type.contains("ndjson") || type.contains("jsonl")) {
+            return new NdjsonReader(input);
+        }
+        if (type.contains("csv")) {
+            return new CsvReader(input);
+        }
+        return new JsonArrayReader(input);
+    }
+
+    private static Row parseJson(int number, JsonNode node) {
+        try {
+            return new Row(number, OBJECT_MAPPER.treeToValue(node, City.class), null);
+        } catch (JsonProcessingException e) {
+            return new Row(number, null, "Invalid city: " + e.getOriginalMessage());
+        }
+    }
+
+    private static BufferedReader reader(InputStream input) {
+        return new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    private static class JsonArrayReader extends CityImportReader {
+        private final JsonParser parser;
+
+        JsonArrayReader(InputStream input) throws IOException {
+            this.parser = OBJECT_MAPPER.getFactory().createParser(input);
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array of cities");
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return null;
+            }
+            // read each element as a tree first so a mapping error only affects its own row
+            JsonNode node = OBJECT_MAPPER.readTree(parser);
+            return parseJson(++rowNumber, node);
+        }
+    }
+
+    private static class NdjsonReader extends CityImportReader {
+        private final BufferedReader reader;
+
+        NdjsonReader(InputStream input) {
+            this.reader = reader(input);
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                rowNumber++;
+            } while (line.isBlank());
+
+            try {
+                return parseJson(rowNumber, OBJECT_MAPPER.readTree(line));
+            } catch (JsonProcessingException e) {
+                return new Row(rowNumber, null, "Malformed JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private static class CsvReader extends CityImportReader {
+        private final BufferedReader reader;
+        private final List<CityField> columns = new ArrayList<>();
+
+        CsvReader(InputStream input) throws IOException {
+            this.reader = reader(input);
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            for (String name : split(header)) {
+                CityField field = CityField.fromKey(name);
+                if (field == null) {
+                    throw new IllegalArgumentException("Unknown CSV column: " + name);
+                }
+                columns.add(field);
+            }
+        }
+
+        @Override
+        public Row next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                rowNumber++;
+            } while (line.isBlank());
+
+            List<String> values = split(line);
+            if (values.size() != columns.size()) {
+                return new Row(rowNumber, null, "Expected " + columns.size() + " columns but got " + values.size());
+            }
+
+            City city = new City();
+            try {
+                for (int i = 0; i < columns.size(); i++) {
+                    String value = values.get(i);
+                    if (!value.isEmpty()) {
+                        set(city, columns.get(i), columns.get(i).parse(value));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                return new Row(rowNumber, null, e.getMessage());
+            }
+            return new Row(rowNumber, city, null);
+        }
+
+        private static void set(City city, CityField field, Object value) {
+            switch (field) {
+                case NAME -> city.setName((String) value);
+                case COORDINATES_X -> coordinates(city).setX((Long) value);
+                case COORDINATES_Y -> coordinates(city).setY((Long) value);
+                case CREATION_DATE -> city.setCreationDate((LocalDate) value);
+                case AREA -> city.setArea((Double) value);
+                case POPULATION -> city.setPopulation((Long) value);
+                case ESTABLISHMENT_DATE -> city.setEstablishmentDate((LocalDate) value);
+                case CAPITAL -> city.setCapital((Boolean) value);
+                case METERS_ABOVE_SEA_LEVEL -> city.setMetersAboveSeaLevel((Float) value);
+                case TIMEZONE -> city.setTimezone((Integer) value);
+                case CAR_CODE -> city.setCarCode((Integer) value);
+                case GOVERNMENT -> city.setGovernment((Government) value);
+                case GOVERNOR -> city.setGovernor(new Human((String) value));
+                case ID -> {
+                    // ids are always assigned by the database
+                }
+            }
+        }
+
+        private static Coordinates coordinates(City city) {
+            if (city.getCoordinates() == null) {
+                city.setCoordinates(new Coordinates());
+            }
+            return city.getCoordinates();
+        }
+
+        private static List<String> split(String line) {
+            List<String> values = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        current.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    values.add(current.toString().trim());
+                    current.setLength(0);
+                } else {
+                    current.append(c);
+                }
+            }
+            values.add(current.toString().trim());
+            return values;
+        }
+    }
+}
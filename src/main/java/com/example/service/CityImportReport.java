@@ -0,0 +1,33 @@
+package com.example.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+public class CityImportReport {
+    private int total;
+    private int imported;
+    private int failed;
+    private final List<RowError> errors = new ArrayList<>();
+
+    void succeeded(int rows) {
+        total += rows;
+        imported += rows;
+    }
+
+    void failed(int row, String message) {
+        total++;
+        failed++;
+        errors.add(new RowError(row, message));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RowError {
+        private final int row;
+        private final String message;
+    }
+}
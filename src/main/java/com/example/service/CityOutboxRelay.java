@@ -0,0 +1,141 @@
+package com.example.service;
+
+import com.example.event.CityChangeEvent;
+import com.example.event.CityEventBus;
+import com.example.model.City;
+import com.example.repository.CityOutbox;
+import com.example.repository.CityRepository;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the committed outbox entries to the event bus. It polls on its own, and writers wake it up so a change
+ * normally reaches the clients within one drain cycle while the request that made it has already returned.
+ */
+@Component
+public class CityOutboxRelay implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(CityOutboxRelay.class);
+    private static final long POLL_INTERVAL_MS = 200;
+    private static final int BATCH_SIZE = 500;
+    private static final TypeReference<Map<String, Object>> PAYLOAD = new TypeReference<>() {
+    };
+
+    private final CityRepository cityRepository;
+    private final CityEventBus eventBus;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "city-outbox-relay");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+    private final AtomicLong drainCycles = new AtomicLong();
+    private final AtomicLong entriesRelayed = new AtomicLong();
+    private final AtomicLong failedCycles = new AtomicLong();
+
+    public CityOutboxRelay(CityRepository cityRepository, CityEventBus eventBus) {
+        this.cityRepository = cityRepository;
+        this.eventBus = eventBus;
+        this.executor.scheduleWithFixedDelay(this::drain, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void wakeUp() {
+        // any number of writes before the relay gets to run are picked up by the same cycle
+        if (wakeUpPending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                wakeUpPending.set(false);
+                drain();
+            });
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("drainCycles", drainCycles.get());
+        stats.put("entriesRelayed", entriesRelayed.get());
+        stats.put("failedCycles", failedCycles.get());
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    private void drain() {
+        try {
+            int drained;
+            do {
+                drained = cityRepository.drainOutbox(BATCH_SIZE, this::publish);
+                if (drained > 0) {
+                    drainCycles.incrementAndGet();
+                    entriesRelayed.addAndGet(drained);
+                }
+            } while (drained == BATCH_SIZE);
+        } catch (Exception e) {
+            failedCycles.incrementAndGet();
+            log.warn("Outbox relay failed, the entries will be retried: {}", e.getMessage());
+        }
+    }
+
+    private void publish(List<CityOutbox.Entry> entries) {
+        List<Long> ids = new ArrayList<>();
+        for (CityOutbox.Entry entry : entries) {
+            if (entry.cityId() != null && !CityChangeEvent.CITY_DELETED.equals(entry.type())) {
+                ids.add(entry.cityId());
+            }
+        }
+        Map<Long, City> cities = new HashMap<>();
+        for (City city : cityRepository.findByIds(ids)) {
+            cities.put(city.getId(), city);
+        }
+
+        int imported = 0;
+        int importBatches = 0;
+        String importedOrigin = null;
+        for (CityOutbox.Entry entry : entries) {
+            // entries of other nodes are relayed too, they keep the node that wrote them
+            String origin = entry.origin();
+            if (CityChangeEvent.CITIES_IMPORTED.equals(entry.type())) {
+                // import batches of one drain are reported as a single import, of no particular node if they differ
+                importedOrigin = importBatches++ == 0 || origin.equals(importedOrigin) ? origin : null;
+                imported += ((Number) entry.payload(PAYLOAD).getOrDefault("imported", 0)).intValue();
+                continue;
+            }
+            if (entry.cityId() == null) {
+                eventBus.publish(new CityChangeEvent(entry.type(), null, null, null, entry.payload(PAYLOAD), origin,
+                        entry.xid()));
+                continue;
+            }
+
+            City previous = entry.payload(City.class);
+            City current = cities.get(entry.cityId());
+            if (CityChangeEvent.CITY_DELETED.equals(entry.type())) {
+                eventBus.publish(new CityChangeEvent(entry.type(), entry.cityId(), previous, null, null, origin,
+                        entry.xid()));
+            } else if (current != null) {
+                // the city is read after commit, a later entry in the outbox covers it if it has changed since
+                eventBus.publish(new CityChangeEvent(entry.type(), entry.cityId(), previous, current, null, origin,
+                        entry.xid()));
+            }
+        }
+
+        if (imported > 0) {
+            eventBus.publish(new CityChangeEvent(CityChangeEvent.CITIES_IMPORTED, null, null, null,
+                    Map.of("imported", imported), importedOrigin, null));
+        }
+    }
+}
@@ -3,22 +3,50 @@ package com.example.service;
 import com.example.model.City;
 import com.example.model.Coordinates;
 import com.example.model.Human;
+import com.example.repository.CityFacet;
+import com.example.repository.CityFilter;
+import com.example.repository.CityPatch;
+import com.example.repository.CityProjection;
 import com.example.repository.CityRepository;
+import com.example.spatial.CitySpatialSearch;
 import com.example.websocket.CityWebSocketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class CityService {
+    private static final Logger log = LoggerFactory.getLogger(CityService.class);
+    private static final int EXPORT_FETCH_SIZE = 1000;
+
     private final CityRepository cityRepository;
     private final CityWebSocketHandler webSocketHandler;
+    private final CityAggregateStore aggregateStore;
+    private final CityCache cityCache;
+    private final CityOutboxRelay outboxRelay;
+    private final CitySpatialSearch spatialSearch;
 
-    public CityService(CityRepository cityRepository, CityWebSocketHandler webSocketHandler) {
+    public CityService(CityRepository cityRepository, CityWebSocketHandler webSocketHandler,
+                       CityAggregateStore aggregateStore, CityCache cityCache, CityOutboxRelay outboxRelay,
+                       CitySpatialSearch spatialSearch) {
         this.webSocketHandler = webSocketHandler;
         this.cityRepository = cityRepository;
+        this.aggregateStore = aggregateStore;
+        this.cityCache = cityCache;
+        this.outboxRelay = outboxRelay;
+        this.spatialSearch = spatialSearch;
 
     }
 
@@ -28,39 +56,136 @@ public class CityService {
             city.setCreationDate(java.time.LocalDate.now());
         }
         Long id = cityRepository.save(city);
-        webSocketHandler.broadcastUpdate("CITY_ADDED", city);
+        long xid = cityRepository.currentTransactionId();
+        afterCommit(() -> {
+            aggregateStore.onAdded(city, xid);
+            cityCache.onChanged(null, city);
+            outboxRelay.wakeUp();
+        });
         return id;
     }
 
+    public CityImportReport importCities(CityImportReader reader, int batchSize) throws IOException {
+        CityImportReport report = new CityImportReport();
+        List<CityImportReader.Row> batch = new ArrayList<>(batchSize);
+
+        CityImportReader.Row row;
+        while ((row = reader.next()) != null) {
+            if (row.getError() != null) {
+                report.failed(row.getNumber(), row.getError());
+                continue;
+            }
+
+            City city = row.getCity();
+            String validationError = CityValidator.validate(city);
+            if (validationError != null) {
+                report.failed(row.getNumber(), validationError);
+                continue;
+            }
+
+            city.setId(null);
+            if (city.getCreationDate() == null) {
+                city.setCreationDate(java.time.LocalDate.now());
+            }
+            batch.add(row);
+            if (batch.size() >= batchSize) {
+                flushImportBatch(batch, batchSize, report);
+            }
+        }
+        flushImportBatch(batch, batchSize, report);
+
+        if (report.getImported() > 0) {
+            cityCache.clear();
+            outboxRelay.wakeUp();
+        }
+        return report;
+    }
+
+    private void flushImportBatch(List<CityImportReader.Row> batch, int batchSize, CityImportReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<City> cities = new ArrayList<>(batch.size());
+        for (CityImportReader.Row row : batch) {
+            cities.add(row.getCity());
+        }
+
+        try {
+            long xid = cityRepository.saveAll(cities, batchSize);
+            report.succeeded(cities.size());
+            for (City city : cities) {
+                aggregateStore.onAdded(city, xid);
+            }
+        } catch (Exception e) {
+            log.info("Import batch rejected, retrying its rows one by one: {}", e.getMessage());
+            for (CityImportReader.Row row : batch) {
+                City city = row.getCity();
+                city.setId(null);
+                try {
+                    long xid = cityRepository.saveAll(List.of(city), 1);
+                    report.succeeded(1);
+                    aggregateStore.onAdded(city, xid);
+                } catch (Exception rowError) {
+                    report.failed(row.getNumber(), "Rejected by the database: " + rowError.getMessage());
+                }
+            }
+        }
+        batch.clear();
+    }
+
     @Transactional(readOnly = true)
     public City getCity(Long id) {
-        return cityRepository.findById(id);
+        return cityCache.getCity(id, () -> cityRepository.findById(id));
     }
 
+    /**
+     * Returns the city as written, or null when it does not exist. A patch that carries a version fails with an
+     * {@link OptimisticLockingFailureException} when the city has been changed since that version was read.
+     */
     @Transactional
-    public void updateCity(City city) {
-        webSocketHandler.broadcastUpdate("CITY_UPDATED", city);
-        cityRepository.update(city);
+    public City updateCity(Long id, CityPatch patch) {
+        City previous = cityRepository.update(id, patch);
+        if (previous == null) {
+            if (patch.getVersion() != null && cityRepository.exists(id)) {
+                throw new OptimisticLockingFailureException("City with ID " + id + " has been changed since version "
+                        + patch.getVersion() + ", reload it and try again");
+            }
+            return null;
+        }
+
+        City city = patch.applyTo(previous);
+        city.setVersion(previous.getVersion() + 1);
+        // a patch is only known to be valid once it is merged, throwing here rolls the update back
+        String validationError = CityValidator.validate(city);
+        if (validationError != null) {
+            throw new IllegalArgumentException(validationError);
+        }
+
+        long xid = cityRepository.currentTransactionId();
+        afterCommit(() -> {
+            aggregateStore.onUpdated(previous, city, xid);
+            cityCache.onChanged(previous, city);
+            outboxRelay.wakeUp();
+        });
+        return city;
     }
 
-    @Transactional(readOnly = true)
     public Double getAverageCarCode(){
-        return cityRepository.getAverageCarCode();
+        return aggregateStore.getAverageCarCode();
     }
 
-    @Transactional(readOnly = true)
     public Double getSumOfTimezones(){
-        return cityRepository.getSumOfTimezones();
+        return aggregateStore.getSumOfTimezones();
     }
 
     @Transactional(readOnly = true)
-    public List<City> getCitiesWithTimezoneLessThan(int timezone){
-        return cityRepository.getCitiesWithTimezoneLessThan(timezone);
+    public List<Object> getCitiesWithTimezoneLessThan(int timezone, CityProjection projection){
+        return cityRepository.getCitiesWithTimezoneLessThan(timezone, projection);
     }
 
-    @Transactional(readOnly = true)
     public Double calculateDistanceToTheMostPopulatedCity(){
-        return cityRepository.calculateDistanceToTheMostPopulatedCity();
+        return aggregateStore.getDistanceToMostPopulated();
     }
 
     @Transactional(readOnly = true)
@@ -74,18 +199,146 @@ public class CityService {
     }
 
     @Transactional
-    public void deleteCityCascade(City city) {
-        cityRepository.delete(city);
-        webSocketHandler.broadcastUpdate("CITY_DELETED", city);
+    public boolean deleteCity(Long id, Long version) {
+        City city = cityRepository.delete(id, version);
+        if (city == null) {
+            if (version != null && cityRepository.exists(id)) {
+                throw new OptimisticLockingFailureException("City with ID " + id + " has been changed since version "
+                        + version + ", reload it and try again");
+            }
+            return false;
+        }
+        long xid = cityRepository.currentTransactionId();
+        afterCommit(() -> {
+            aggregateStore.onDeleted(city, xid);
+            cityCache.onChanged(city, null);
+            outboxRelay.wakeUp();
+        });
+        return true;
+    }
+
+    @Transactional
+    public int updateCities(CityFilter filter, CityPatch patch) {
+        // the rows are never loaded, so each value is held to the rules a merged city would be
+        String validationError = CityValidator.validate(patch);
+        if (validationError != null) {
+            throw new IllegalArgumentException(validationError);
+        }
+        int updated = cityRepository.updateWithFilters(filter, patch);
+        if (updated > 0) {
+            afterCommit(this::onBulkChange);
+        }
+        return updated;
+    }
+
+    @Transactional
+    public int deleteCities(CityFilter filter) {
+        int deleted = cityRepository.deleteWithFilters(filter);
+        if (deleted > 0) {
+            afterCommit(this::onBulkChange);
+        }
+        return deleted;
+    }
+
+    private void onBulkChange() {
+        // the statement does not say which cities it touched, both are rebuilt from the database on next use
+        cityCache.clear();
+        aggregateStore.invalidate();
+        outboxRelay.wakeUp();
+    }
+
+    @Transactional(readOnly = true)
+    public List<City> getNearestCities(double x, double y, int limit) {
+        return spatialSearch.nearest(x, y, limit);
     }
 
     @Transactional(readOnly = true)
+    public List<City> getCitiesWithinRadius(double x, double y, double radius, int limit) {
+        return spatialSearch.withinRadius(x, y, radius, limit);
+    }
+
+    @Transactional(readOnly = true)
+    public List<City> getCitiesWithinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        return spatialSearch.withinBox(minX, minY, maxX, maxY, limit);
+    }
+
     public Double calculateDistanceToNewestCity(){
-        return cityRepository.calculateDistanceToNewestCity();
+        return aggregateStore.getDistanceToNewest();
+    }
+
+    public Map<String, Object> verifyAggregates() {
+        return aggregateStore.verify();
+    }
+
+    public Map<String, Object> getBroadcastStats() {
+        Map<String, Object> stats = new HashMap<>(webSocketHandler.getStats());
+        stats.put("outbox", outboxRelay.getStats());
+        return stats;
+    }
+
+    public List<Map<String, Object>> getCacheStats() {
+        return cityCache.stats();
+    }
+
+    public String getChangeTag() {
+        return cityCache.getChangeTag();
+    }
+
+    public long exportCities(CityFilter filter, String sortBy, String sortDirection, CityExportWriter writer)
+            throws IOException {
+        try {
+            long count = cityRepository.streamWithFiltersAndSort(filter, sortBy, sortDirection, EXPORT_FETCH_SIZE, city -> {
+                try {
+                    writer.write(city);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.finish();
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public List<Object> getCitiesPage(CityFilter filter, String sortBy, String sortDirection, int page, int size,
+                                      CityProjection projection) {
+        return cityCache.getPage(filter, sortBy, sortDirection, page, size, null, null, projection,
+                () -> cityRepository.findPageWithFiltersAndSort(filter, sortBy, sortDirection, page, size, projection));
+    }
+
+    @Transactional(readOnly = true)
+    public List<Object> getCitiesPageAfter(CityFilter filter, String sortBy, String sortDirection,
+                                           String afterValue, Long afterId, int size, CityProjection projection) {
+        return cityCache.getPage(filter, sortBy, sortDirection, -1, size, afterId, afterValue, projection,
+                () -> cityRepository.findPageAfter(filter, sortBy, sortDirection, afterValue, afterId, size, projection));
+    }
+
+    @Transactional(readOnly = true)
+    public long countCitiesWithFilters(CityFilter filter) {
+        return cityCache.getCount(filter, () -> cityRepository.countWithFilters(filter));
     }
 
     @Transactional(readOnly = true)
-    public List<City> getCitiesWithFiltersAndSort(Map<String, String> filters, String sortBy, String sortDirection) {
-        return cityRepository.findWithFiltersAndSort(filters, sortBy, sortDirection);
+    public Map<String, Object> getFacets(CityFilter filter, Set<CityFacet> facets) {
+        return cityCache.getFacets(filter, facets, () -> cityRepository.countFacets(filter, facets));
+    }
+
+    /**
+     * Caches and aggregates must not see a change before it is committed, or a concurrent read could cache a version
+     * that is about to be rolled back.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
     }
-}
\ No newline at end of file
+}
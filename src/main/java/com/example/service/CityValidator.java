@@ -0,0 +1,70 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.repository.CityField;
+import com.example.repository.CityPatch;
+
+import java.util.Map;
+
+public final class CityValidator {
+    private static final CityField[] CHECKED_FIELDS = {
+            CityField.NAME, CityField.POPULATION, CityField.AREA, CityField.COORDINATES_X, CityField.COORDINATES_Y,
+            CityField.TIMEZONE, CityField.CAR_CODE, CityField.GOVERNMENT, CityField.GOVERNOR
+    };
+
+    private CityValidator() {
+    }
+
+    public static String validate(City city) {
+        for (CityField field : CHECKED_FIELDS) {
+            if (field == CityField.COORDINATES_X && city.getCoordinates() == null) {
+                return "Coordinates are required";
+            }
+            String error = validate(field, field.extract(city));
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks only the fields the patch sets, for writes that never see the merged city.
+     */
+    public static String validate(CityPatch patch) {
+        for (Map.Entry<CityField, Object> change : patch.getChanges().entrySet()) {
+            String error = validate(change.getKey(), change.getValue());
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    private static String validate(CityField field, Object value) {
+        switch (field) {
+            case NAME:
+                return value == null || value.toString().trim().isEmpty() ? "City name is required" : null;
+            case POPULATION:
+                return value == null || (Long) value <= 0 ? "Population must be greater than 0" : null;
+            case AREA:
+                return value == null || (Double) value <= 0 ? "Area must be greater than 0" : null;
+            case COORDINATES_X:
+                return value == null || (Long) value > 913 ? "X coordinate must be ≤ 913" : null;
+            case COORDINATES_Y:
+                return value == null || (Long) value <= -243 ? "Y coordinate must be > -243" : null;
+            case TIMEZONE:
+                return value == null || (Integer) value < -13 || (Integer) value > 15
+                        ? "Timezone must be between -13 and 15" : null;
+            case CAR_CODE:
+                return value != null && ((Integer) value <= 0 || (Integer) value > 1000)
+                        ? "Car code must be between 1 and 1000" : null;
+            case GOVERNMENT:
+                return value == null ? "Government is required" : null;
+            case GOVERNOR:
+                return value == null || value.toString().trim().isEmpty() ? "Governor name is required" : null;
+            default:
+                return null;
+        }
+    }
+}
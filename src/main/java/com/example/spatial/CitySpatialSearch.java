@@ -0,0 +1,14 @@
+package com.example.spatial;
+
+import com.example.model.City;
+
+import java.util.List;
+
+public interface CitySpatialSearch {
+
+    List<City> nearest(double x, double y, int limit);
+
+    List<City> withinRadius(double x, double y, double radius, int limit);
+
+    List<City> withinBox(double minX, double minY, double maxX, double maxY, int limit);
+}
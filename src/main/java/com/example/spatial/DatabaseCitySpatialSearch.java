@@ -0,0 +1,29 @@
+package com.example.spatial;
+
+import com.example.model.City;
+import com.example.repository.CityRepository;
+
+import java.util.List;
+
+public class DatabaseCitySpatialSearch implements CitySpatialSearch {
+    private final CityRepository cityRepository;
+
+    public DatabaseCitySpatialSearch(CityRepository cityRepository) {
+        this.cityRepository = cityRepository;
+    }
+
+    @Override
+    public List<City> nearest(double x, double y, int limit) {
+        return cityRepository.findNearest(x, y, limit);
+    }
+
+    @Override
+    public List<City> withinRadius(double x, double y, double radius, int limit) {
+        return cityRepository.findWithinRadius(x, y, radius, limit);
+    }
+
+    @Override
+    public List<City> withinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        return cityRepository.findWithinBox(minX, minY, maxX, maxY, limit);
+    }
+}
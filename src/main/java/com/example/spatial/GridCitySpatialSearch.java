@@ -0,0 +1,265 @@
+package com.example.spatial;
+
+import com.example.event.CityChangeEvent;
+import com.example.event.CityEventBus;
+import com.example.model.City;
+import com.example.repository.CityRepository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the location of every city in a uniform grid of -Dcities.spatial.cellSize (16 by default) wide cells, for
+ * databases where the point index of schema.sql cannot be used. The grid follows the change events, and the matching
+ * cities are loaded by id, so the results are only ever as stale as the locations.
+ */
+public class GridCitySpatialSearch implements CitySpatialSearch {
+    private static final double CELL_SIZE = Integer.getInteger("cities.spatial.cellSize", 16);
+    private static final Comparator<Match> CLOSEST_FIRST =
+            Comparator.comparingDouble(Match::distance).thenComparingLong(Match::id);
+
+    private record Cell(long x, long y) {
+    }
+
+    private record Location(long id, double x, double y) {
+    }
+
+    private record Match(long id, double distance) {
+    }
+
+    private final CityRepository cityRepository;
+    private final Map<Long, Location> locations = new HashMap<>();
+    private final Map<Cell, List<Location>> cells = new HashMap<>();
+    private boolean seeded;
+    // only ever grow until the next seed, which keeps them a safe bound for the searches
+    private long minCellX;
+    private long maxCellX;
+    private long minCellY;
+    private long maxCellY;
+
+    public GridCitySpatialSearch(CityRepository cityRepository, CityEventBus eventBus) {
+        this.cityRepository = cityRepository;
+        eventBus.subscribe(this::onEvents);
+    }
+
+    @Override
+    public List<City> nearest(double x, double y, int limit) {
+        return load(nearestIds(x, y, limit));
+    }
+
+    @Override
+    public List<City> withinRadius(double x, double y, double radius, int limit) {
+        return load(withinRadiusIds(x, y, radius, limit));
+    }
+
+    @Override
+    public List<City> withinBox(double minX, double minY, double maxX, double maxY, int limit) {
+        return load(withinBoxIds(minX, minY, maxX, maxY, limit));
+    }
+
+    private synchronized List<Long> nearestIds(double x, double y, int limit) {
+        ensureSeeded();
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, CLOSEST_FIRST.reversed());
+        long centerX = cell(x);
+        long centerY = cell(y);
+        long scanned = 0;
+
+        for (long ring = 0; ; ring++) {
+            // every cell of this ring is at least ring - 1 whole cells away from the point
+            if (best.size() == limit && best.peek().distance() <= (ring - 1) * CELL_SIZE) {
+                break;
+            }
+            scanned += ring == 0 ? 1 : 8 * ring;
+            if (scanned > locations.size()) {
+                // the point is far away from the cities or they are sparse, looking at each of them is cheaper
+                best.clear();
+                for (Location location : locations.values()) {
+                    offer(best, limit, new Match(location.id(), distance(location, x, y)));
+                }
+                break;
+            }
+
+            for (long cx = centerX - ring; cx <= centerX + ring; cx++) {
+                boolean edge = cx == centerX - ring || cx == centerX + ring;
+                long step = edge || ring == 0 ? 1 : 2 * ring;
+                for (long cy = centerY - ring; cy <= centerY + ring; cy += step) {
+                    for (Location location : cells.getOrDefault(new Cell(cx, cy), List.of())) {
+                        offer(best, limit, new Match(location.id(), distance(location, x, y)));
+                    }
+                }
+            }
+
+            if (centerX - ring <= minCellX && centerX + ring >= maxCellX
+                    && centerY - ring <= minCellY && centerY + ring >= maxCellY) {
+                break;
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(CLOSEST_FIRST);
+        return ids(matches);
+    }
+
+    private synchronized List<Long> withinRadiusIds(double x, double y, double radius, int limit) {
+        ensureSeeded();
+        List<Match> matches = new ArrayList<>();
+        for (Location location : candidates(x - radius, y - radius, x + radius, y + radius)) {
+            double distance = distance(location, x, y);
+            if (distance <= radius) {
+                matches.add(new Match(location.id(), distance));
+            }
+        }
+        matches.sort(CLOSEST_FIRST);
+        return ids(matches.subList(0, Math.min(limit, matches.size())));
+    }
+
+    private synchronized List<Long> withinBoxIds(double minX, double minY, double maxX, double maxY, int limit) {
+        ensureSeeded();
+        List<Long> ids = new ArrayList<>();
+        for (Location location : candidates(minX, minY, maxX, maxY)) {
+            if (location.x() >= minX && location.x() <= maxX && location.y() >= minY && location.y() <= maxY) {
+                ids.add(location.id());
+            }
+        }
+        ids.sort(null);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    private Collection<Location> candidates(double minX, double minY, double maxX, double maxY) {
+        long fromX = Math.max(cell(minX), minCellX);
+        long toX = Math.min(cell(maxX), maxCellX);
+        long fromY = Math.max(cell(minY), minCellY);
+        long toY = Math.min(cell(maxY), maxCellY);
+        if (fromX > toX || fromY > toY) {
+            return List.of();
+        }
+        if ((double) (toX - fromX + 1) * (toY - fromY + 1) > locations.size()) {
+            return locations.values();
+        }
+
+        List<Location> candidates = new ArrayList<>();
+        for (long cx = fromX; cx <= toX; cx++) {
+            for (long cy = fromY; cy <= toY; cy++) {
+                candidates.addAll(cells.getOrDefault(new Cell(cx, cy), List.of()));
+            }
+        }
+        return candidates;
+    }
+
+    private List<City> load(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, City> cities = new HashMap<>();
+        for (City city : cityRepository.findByIds(ids)) {
+            cities.put(city.getId(), city);
+        }
+        List<City> ordered = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            City city = cities.get(id);
+            if (city != null) {
+                ordered.add(city);
+            }
+        }
+        return ordered;
+    }
+
+    private synchronized void onEvents(List<CityChangeEvent> events) {
+        for (CityChangeEvent event : events) {
+            if (!seeded) {
+                return;
+            }
+            if (event.isBulk()) {
+                // the event does not say which cities moved, start over on the next search
+                seeded = false;
+                return;
+            }
+            remove(event.getId());
+            if (!CityChangeEvent.CITY_DELETED.equals(event.getType()) && event.getCurrent() != null) {
+                add(event.getCurrent());
+            }
+        }
+    }
+
+    private void ensureSeeded() {
+        if (seeded) {
+            return;
+        }
+        locations.clear();
+        cells.clear();
+        minCellX = Long.MAX_VALUE;
+        maxCellX = Long.MIN_VALUE;
+        minCellY = Long.MAX_VALUE;
+        maxCellY = Long.MIN_VALUE;
+        for (Object[] row : cityRepository.findAllLocations()) {
+            if (row[1] != null && row[2] != null) {
+                put(new Location(((Number) row[0]).longValue(), ((Number) row[1]).doubleValue(),
+                        ((Number) row[2]).doubleValue()));
+            }
+        }
+        seeded = true;
+    }
+
+    private void add(City city) {
+        if (city.getId() != null && city.getCoordinates() != null
+                && city.getCoordinates().getX() != null && city.getCoordinates().getY() != null) {
+            put(new Location(city.getId(), city.getCoordinates().getX(), city.getCoordinates().getY()));
+        }
+    }
+
+    private void put(Location location) {
+        locations.put(location.id(), location);
+        long cx = cell(location.x());
+        long cy = cell(location.y());
+        cells.computeIfAbsent(new Cell(cx, cy), cell -> new ArrayList<>()).add(location);
+        minCellX = Math.min(minCellX, cx);
+        maxCellX = Math.max(maxCellX, cx);
+        minCellY = Math.min(minCellY, cy);
+        maxCellY = Math.max(maxCellY, cy);
+    }
+
+    private void remove(Long id) {
+        Location location = id != null ? locations.remove(id) : null;
+        if (location == null) {
+            return;
+        }
+        Cell cell = new Cell(cell(location.x()), cell(location.y()));
+        List<Location> bucket = cells.get(cell);
+        bucket.remove(location);
+        if (bucket.isEmpty()) {
+            cells.remove(cell);
+        }
+    }
+
+    private static void offer(PriorityQueue<Match> best, int limit, Match match) {
+        if (best.size() < limit) {
+            best.add(match);
+        } else if (CLOSEST_FIRST.compare(match, best.peek()) < 0) {
+            best.poll();
+            best.add(match);
+        }
+    }
+
+    private static List<Long> ids(List<Match> matches) {
+        List<Long> ids = new ArrayList<>(matches.size());
+        for (Match match : matches) {
+            ids.add(match.id());
+        }
+        return ids;
+    }
+
+    private static long cell(double coordinate) {
+        return (long) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static double distance(Location location, double x, double y) {
+        double dx = location.x() - x;
+        double dy = location.y() - y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -1,78 +1,471 @@
 package com.example.websocket;
 
+import com.example.metrics.LatencyHistogram;
+import com.example.model.City;
+import com.example.repository.CityField;
+import com.example.repository.CityFilter;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
-public class CityWebSocketHandler extends TextWebSocketHandler {
+public class CityWebSocketHandler extends TextWebSocketHandler implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(CityWebSocketHandler.class);
+    private static final long COALESCE_WINDOW_MS = 50;
+    private static final int SEND_TIME_LIMIT_MS = 5_000;
+    private static final int BUFFER_SIZE_LIMIT = 512 * 1024;
+    private static final int SENDER_THREADS = 4;
+    private static final int HISTORY_SIZE = 10_000;
 
-    private final CopyOnWriteArraySet<WebSocketSession> sessions = new CopyOnWriteArraySet<>();
+    private final Map<String, SessionChannel> sessions = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    private final Map<Object, CityEvent> pending = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(daemon("city-broadcast"));
+    private final ExecutorService sender = Executors.newFixedThreadPool(SENDER_THREADS, daemon("city-broadcast-send"));
+
+    // sequence numbers restart with the process, the epoch lets a resuming client notice that
+    private final String epoch = UUID.randomUUID().toString();
+    private volatile long sequence;
+    // only touched from the flusher thread
+    private final ArrayDeque<SequencedEvent> history = new ArrayDeque<>();
+
+    private final AtomicLong eventsQueued = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong droppedSessions = new AtomicLong();
+    private final AtomicLong failedSends = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicInteger lastBatchSize = new AtomicInteger();
+
     public CityWebSocketHandler() {
         this.objectMapper.registerModule(new JavaTimeModule());
         this.objectMapper.disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.flusher.scheduleWithFixedDelay(this::flush, COALESCE_WINDOW_MS, COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        System.out.println("Подключили вебсокет");
-        sessions.add(session);
-        System.out.println("WebSocket соединение установлено: " + session.getId());
+        sessions.put(session.getId(), new SessionChannel(
+                new ConcurrentWebSocketSessionDecorator(session, SEND_TIME_LIMIT_MS, BUFFER_SIZE_LIMIT)));
+        subscriptions.subscribe(session.getId(), new CityFilter());
+        log.debug("WebSocket соединение установлено: {}", session.getId());
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        SessionChannel channel = sessions.get(session.getId());
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            JsonNode request = objectMapper.readTree(message.getPayload());
+            String type = request.path("type").asText();
+
+            if ("SUBSCRIBE".equals(type)) {
+                Map<String, String> params = new HashMap<>();
+                request.path("filters").fields().forEachRemaining(field -> params.put(field.getKey(), field.getValue().asText()));
+                CityFilter filter = CityFilter.fromParams(params);
+
+                if (request.hasNonNull("lastSeq")) {
+                    String clientEpoch = request.path("epoch").asText();
+                    long lastSeq = request.path("lastSeq").asLong();
+                    // the switch to the new filter happens on the flusher thread together with the replay, so no live
+                    // batch can reach the session between the two
+                    flusher.execute(() -> resume(session.getId(), channel, filter, clientEpoch, lastSeq));
+                } else {
+                    subscriptions.subscribe(session.getId(), filter);
+                    reply(channel, "SUBSCRIBED", filter.toParams());
+                }
+            } else if ("UNSUBSCRIBE".equals(type)) {
+                subscriptions.subscribe(session.getId(), new CityFilter());
+                reply(channel, "SUBSCRIBED", Map.of());
+            } else {
+                reply(channel, "ERROR", "Unknown message type: " + type);
+            }
+        } catch (IllegalArgumentException | JsonProcessingException e) {
+            // fall back to the full feed rather than leaving the client on a filter it no longer shows
+            subscriptions.subscribe(session.getId(), new CityFilter());
+            reply(channel, "ERROR", e.getMessage());
+        }
     }
 
     @Override
     public void handleTransportError(WebSocketSession session, Throwable exception) throws Exception {
-        System.err.println("WebSocket ошибка транспорта: " + exception.getMessage());
+        log.debug("WebSocket ошибка транспорта в {}: {}", session.getId(), exception.getMessage());
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        sessions.remove(session);
-        System.out.println("WebSocket соединение закрыто: " + session.getId());
+        close(session.getId());
+        log.debug("WebSocket соединение закрыто: {} {}", session.getId(), status);
     }
 
     public void broadcastUpdate(String type, Object data) {
-        System.out.println("broadcastUpdate: " + type + " " + data);
+        enqueue(new Object(), new CityEvent(type, null, data, null));
+    }
+
+    /**
+     * Either state may be missing for a change relayed from another node: the previous one of an update and both of a
+     * deletion. Such a change is sent to every subscription, there is nothing to evaluate their filters against.
+     */
+    public void broadcastCityChange(String type, Long id, City previous, City current) {
+        City city = current != null ? current : previous;
+        enqueue(id != null ? id : new Object(), new CityEvent(type, id, city, previous));
+    }
+
+    private void enqueue(Object key, CityEvent event) {
+        log.trace("broadcastUpdate: {} {}", event.getType(), event.getData());
+
+        // events are sequenced even with nobody connected, a client that is reconnecting still needs them
+        eventsQueued.incrementAndGet();
+
+        synchronized (pending) {
+            CityEvent previous = pending.get(key);
+            if (previous == null) {
+                pending.put(key, event);
+                return;
+            }
+
+            eventsCoalesced.incrementAndGet();
+            if ("CITY_DELETED".equals(event.getType()) && "CITY_ADDED".equals(previous.getType())) {
+                // the city never reached the clients, there is nothing to tell them
+                pending.remove(key);
+            } else if ("CITY_ADDED".equals(previous.getType())) {
+                previous.setData(event.getData());
+            } else {
+                previous.setType(event.getType());
+                previous.setData(event.getData());
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (pending) {
+            stats.put("queueDepth", pending.size());
+        }
+        stats.put("sessions", sessions.size());
+        stats.put("subscriptionGroups", subscriptions.groupCount());
+        stats.put("epoch", epoch);
+        stats.put("sequence", sequence);
+        stats.put("eventsQueued", eventsQueued.get());
+        stats.put("eventsCoalesced", eventsCoalesced.get());
+        stats.put("batchesSent", batchesSent.get());
+        stats.put("lastBatchSize", lastBatchSize.get());
+        stats.put("droppedSessions", droppedSessions.get());
+        stats.put("failedSends", failedSends.get());
+        stats.put("framesSent", framesSent.get());
+        stats.put("replays", replays.get());
+        stats.put("reloads", reloads.get());
+        return stats;
+    }
+
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        sender.shutdown();
+    }
 
-        if (sessions.isEmpty()) return;
+    void flush() {
+        List<CityEvent> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
 
         try {
-            WebSocketMessage message = new WebSocketMessage(type, data);
-            String jsonMessage = objectMapper.writeValueAsString(message);
-            TextMessage textMessage = new TextMessage(jsonMessage);
-
-            sessions.removeIf(session -> {
-                try {
-                    if (session.isOpen()) {
-                        session.sendMessage(textMessage);
-                        System.out.println("Отправлено сообщение WebSocket: " + jsonMessage);
-                        return false;
+            // every event is serialized once and only routed to the subscription groups whose filter it matches
+            Map<SubscriptionIndex.Group, List<SequencedEvent>> eventsByGroup = new LinkedHashMap<>();
+            for (CityEvent event : batch) {
+                SequencedEvent sequenced = remember(event);
+                Set<SubscriptionIndex.Group> groups = event.isFiltered()
+                        ? subscriptions.match(event.getPrevious(), (City) event.getData())
+                        : subscriptions.all();
+                for (SubscriptionIndex.Group group : groups) {
+                    eventsByGroup.computeIfAbsent(group, g -> new ArrayList<>()).add(sequenced);
+                }
+            }
+
+            for (Map.Entry<SubscriptionIndex.Group, List<SequencedEvent>> entry : eventsByGroup.entrySet()) {
+                List<SequencedEvent> events = entry.getValue();
+                TextMessage textMessage = batchFrame(events.stream().map(sequenced -> sequenced.json).toList());
+                for (String sessionId : subscriptions.sessionsOf(entry.getKey())) {
+                    SessionChannel channel = sessions.get(sessionId);
+                    if (channel != null) {
+                        if (channel.firstLiveSeq == 0) {
+                            channel.firstLiveSeq = events.get(0).seq;
+                        }
+                        channel.send(textMessage);
                     }
-                } catch (Exception e) {
-                    System.err.println("Ошибка отправки WebSocket сообщения: " + e.getMessage());
                 }
-                return true;
-            });
+            }
+            batchesSent.incrementAndGet();
+            lastBatchSize.set(batch.size());
         } catch (Exception e) {
-            System.err.println("Ошибка создания WebSocket сообщения: " + e.getMessage());
+            log.error("Ошибка создания WebSocket сообщения", e);
         }
     }
+
+    private SequencedEvent remember(CityEvent event) throws JsonProcessingException {
+        long seq = sequence + 1;
+        WebSocketMessage message = new WebSocketMessage(event.getType(), seq, null, event.getData());
+
+        if (event.getId() != null) {
+            message.setId(event.getId());
+            if ("CITY_DELETED".equals(event.getType())) {
+                message.setData(null);
+            } else if ("CITY_UPDATED".equals(event.getType()) && event.getPrevious() != null
+                    && event.getData() instanceof City city) {
+                message.setData(changes(event.getPrevious(), city));
+            }
+        }
+
+        SequencedEvent sequenced = new SequencedEvent(seq, event, objectMapper.writeValueAsString(message));
+        history.addLast(sequenced);
+        if (history.size() > HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        sequence = seq;
+        return sequenced;
+    }
+
+    /**
+     * Runs on the flusher thread. The replay is sent before SUBSCRIBED, whose seq tells the client that everything up
+     * to it has been delivered, and the next live batch only carries events after it.
+     */
+    private void resume(String sessionId, SessionChannel channel, CityFilter filter, String clientEpoch, long lastSeq) {
+        try {
+            subscriptions.subscribe(sessionId, filter);
+
+            long oldest = history.isEmpty() ? sequence + 1 : history.peekFirst().seq;
+            // live frames already sent on this connection cannot be preceded by older ones any more
+            long replayUntil = channel.firstLiveSeq == 0 ? sequence : channel.firstLiveSeq - 1;
+            if (!epoch.equals(clientEpoch) || lastSeq > sequence || lastSeq + 1 < oldest
+                    || (channel.firstLiveSeq != 0 && lastSeq < replayUntil)) {
+                reloads.incrementAndGet();
+                reply(channel, "SUBSCRIBED", filter.toParams());
+                reply(channel, "RELOAD", null);
+                return;
+            }
+
+            List<String> missed = new ArrayList<>();
+            for (SequencedEvent sequenced : history) {
+                if (sequenced.seq <= lastSeq || sequenced.seq > replayUntil) {
+                    continue;
+                }
+                CityEvent event = sequenced.event;
+                boolean relevant = !event.isFiltered()
+                        || (event.getPrevious() != null && filter.matches(event.getPrevious()))
+                        || filter.matches((City) event.getData());
+                if (relevant) {
+                    missed.add(sequenced.json);
+                }
+            }
+            replays.incrementAndGet();
+            if (!missed.isEmpty()) {
+                channel.send(batchFrame(missed));
+            }
+            reply(channel, "SUBSCRIBED", filter.toParams());
+        } catch (Exception e) {
+            log.error("Ошибка повторной отправки WebSocket сообщений", e);
+        }
+    }
+
+    private TextMessage batchFrame(List<String> events) throws JsonProcessingException {
+        return new TextMessage("{\"type\":\"BATCH\",\"epoch\":" + objectMapper.writeValueAsString(epoch)
+                + ",\"data\":[" + String.join(",", events) + "]}");
+    }
+
+    private static Map<String, Object> changes(City previous, City current) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (CityField field : CityField.values()) {
+            Object value = field.extract(current);
+            if (field != CityField.ID && !Objects.equals(field.extract(previous), value)) {
+                changes.put(field.getKey(), value);
+            }
+        }
+        if (!Objects.equals(previous.getVersion(), current.getVersion())) {
+            changes.put("version", current.getVersion());
+        }
+        return changes;
+    }
+
+    private void reply(SessionChannel channel, String type, Object data) throws IOException {
+        Object payload = data;
+        if ("SUBSCRIBED".equals(type) || "RELOAD".equals(type)) {
+            Map<String, Object> state = new HashMap<>();
+            if (data != null) {
+                state.put("filters", data);
+            }
+            state.put("epoch", epoch);
+            payload = state;
+        }
+        channel.send(new TextMessage(objectMapper.writeValueAsString(new WebSocketMessage(type, sequence, null, payload))));
+    }
+
+    private void close(String sessionId) {
+        sessions.remove(sessionId);
+        subscriptions.unsubscribe(sessionId);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Frames for one session are drained by at most one sender thread at a time, so they arrive in sequence order.
+     */
+    private final class SessionChannel {
+        private final WebSocketSession session;
+        private final Queue<TextMessage> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // seq of the first live event sent on this connection, only touched from the flusher thread
+        private long firstLiveSeq;
+
+        private SessionChannel(WebSocketSession session) {
+            this.session = session;
+        }
+
+        void send(TextMessage message) {
+            queue.add(message);
+            if (draining.compareAndSet(false, true)) {
+                sender.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                TextMessage message;
+                while ((message = queue.poll()) != null) {
+                    if (!deliver(message)) {
+                        queue.clear();
+                        return;
+                    }
+                }
+            } finally {
+                draining.set(false);
+                if (!queue.isEmpty() && session.isOpen() && draining.compareAndSet(false, true)) {
+                    sender.execute(this::drain);
+                }
+            }
+        }
+
+        private boolean deliver(TextMessage message) {
+            if (!session.isOpen()) {
+                close(session.getId());
+                return false;
+            }
+
+            try {
+                long start = System.nanoTime();
+                session.sendMessage(message);
+                sendLatency.record(System.nanoTime() - start);
+                framesSent.incrementAndGet();
+                return true;
+            } catch (SessionLimitExceededException e) {
+                // the decorator has already closed the session, it was too slow to keep up
+                droppedSessions.incrementAndGet();
+                close(session.getId());
+                log.info("WebSocket сессия отключена как медленная: {} {}", session.getId(), e.getMessage());
+            } catch (Exception e) {
+                failedSends.incrementAndGet();
+                close(session.getId());
+                log.debug("Ошибка отправки WebSocket сообщения в {}: {}", session.getId(), e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    @AllArgsConstructor
+    private static final class SequencedEvent {
+        private final long seq;
+        private final CityEvent event;
+        private final String json;
+    }
+
+    @Getter
+    @Setter
+    @AllArgsConstructor
+    private static class CityEvent {
+        private String type;
+        private Long id;
+        private Object data;
+        private City previous;
+
+        boolean isFiltered() {
+            if (!(data instanceof City)) {
+                return false;
+            }
+            // an addition has no previous state, any other change without one arrived incomplete
+            return "CITY_ADDED".equals(type) || previous != null;
+        }
+    }
+
     @Getter
     @Setter
     @NoArgsConstructor
     @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public static class WebSocketMessage {
         private String type;
+        private Long seq;
+        private Long id;
         private Object data;
 
+        public WebSocketMessage(String type, Object data) {
+            this.type = type;
+            this.data = data;
+        }
     }
 }
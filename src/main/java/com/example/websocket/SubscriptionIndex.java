@@ -0,0 +1,133 @@
+package com.example.websocket;
+
+import com.example.model.City;
+import com.example.repository.CityField;
+import com.example.repository.CityFilter;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sessions watching the same filter share one group, and groups with an equality or IN condition on a low-cardinality
+ * field are bucketed by its values, so routing an event only evaluates the groups that can possibly match it.
+ */
+class SubscriptionIndex {
+    private static final Set<CityField> INDEXED_FIELDS = EnumSet.of(
+            CityField.ID, CityField.GOVERNMENT, CityField.CAPITAL, CityField.TIMEZONE, CityField.CAR_CODE);
+
+    static final class Group {
+        private final CityFilter filter;
+        private final Set<String> sessionIds = new HashSet<>();
+        private final CityField indexField;
+        private final List<?> indexValues;
+
+        private Group(CityFilter filter) {
+            this.filter = filter;
+            CityField field = null;
+            List<?> values = List.of();
+            for (CityFilter.Condition condition : filter.getConditions()) {
+                boolean equality = condition.getOperator() == CityFilter.Operator.EQ
+                        || condition.getOperator() == CityFilter.Operator.IN;
+                if (equality && INDEXED_FIELDS.contains(condition.getField())) {
+                    field = condition.getField();
+                    values = condition.getValues();
+                    break;
+                }
+            }
+            this.indexField = field;
+            this.indexValues = values;
+        }
+
+        boolean matches(City previous, City current) {
+            return (previous != null && filter.matches(previous)) || (current != null && filter.matches(current));
+        }
+    }
+
+    private final Map<Map<String, String>, Group> groups = new HashMap<>();
+    private final Map<String, Group> bySession = new HashMap<>();
+    private final Map<CityField, Map<Object, Set<Group>>> index = new EnumMap<>(CityField.class);
+    private final Set<Group> unindexed = new LinkedHashSet<>();
+
+    synchronized void subscribe(String sessionId, CityFilter filter) {
+        unsubscribe(sessionId);
+
+        Group group = groups.computeIfAbsent(filter.toParams(), key -> {
+            Group created = new Group(filter);
+            if (created.indexField == null) {
+                unindexed.add(created);
+            } else {
+                Map<Object, Set<Group>> buckets = index.computeIfAbsent(created.indexField, f -> new HashMap<>());
+                for (Object value : created.indexValues) {
+                    buckets.computeIfAbsent(value, v -> new HashSet<>()).add(created);
+                }
+            }
+            return created;
+        });
+        group.sessionIds.add(sessionId);
+        bySession.put(sessionId, group);
+    }
+
+    synchronized void unsubscribe(String sessionId) {
+        Group group = bySession.remove(sessionId);
+        if (group == null) {
+            return;
+        }
+        group.sessionIds.remove(sessionId);
+        if (!group.sessionIds.isEmpty()) {
+            return;
+        }
+
+        groups.remove(group.filter.toParams());
+        if (group.indexField == null) {
+            unindexed.remove(group);
+        } else {
+            Map<Object, Set<Group>> buckets = index.get(group.indexField);
+            for (Object value : group.indexValues) {
+                Set<Group> bucket = buckets.get(value);
+                bucket.remove(group);
+                if (bucket.isEmpty()) {
+                    buckets.remove(value);
+                }
+            }
+            if (buckets.isEmpty()) {
+                index.remove(group.indexField);
+            }
+        }
+    }
+
+    synchronized Set<Group> match(City previous, City current) {
+        Set<Group> candidates = new LinkedHashSet<>(unindexed);
+        for (Map.Entry<CityField, Map<Object, Set<Group>>> entry : index.entrySet()) {
+            for (City city : new City[]{previous, current}) {
+                if (city == null) {
+                    continue;
+                }
+                Set<Group> bucket = entry.getValue().get(entry.getKey().extract(city));
+                if (bucket != null) {
+                    candidates.addAll(bucket);
+                }
+            }
+        }
+        candidates.removeIf(group -> !group.matches(previous, current));
+        return candidates;
+    }
+
+    synchronized Set<Group> all() {
+        return new LinkedHashSet<>(groups.values());
+    }
+
+    synchronized List<String> sessionsOf(Group group) {
+        return new ArrayList<>(group.sessionIds);
+    }
+
+    synchronized int groupCount() {
+        return groups.size();
+    }
+}
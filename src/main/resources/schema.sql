@@ -1,4 +1,6 @@
-CREATE TABLE cities (
+-- Applied on every start by SchemaMigration, so every statement must leave an up-to-date schema unchanged.
+
+CREATE TABLE IF NOT EXISTS cities (
     id BIGSERIAL PRIMARY KEY,
     name VARCHAR(100) NOT NULL CHECK (name <> ''),
     x BIGINT NOT NULL CHECK (x <= 913),
@@ -12,5 +14,39 @@ CREATE TABLE cities (
     timezone INTEGER NOT NULL CHECK (timezone > -13 AND timezone <= 15),
     car_code INTEGER CHECK (car_code > 0 AND car_code <= 1000),
     government VARCHAR(50) NOT NULL,
-    governor_name VARCHAR(100) NOT NULL CHECK (governor_name <> '')
+    governor_name VARCHAR(100) NOT NULL CHECK (governor_name <> ''),
+    version BIGINT NOT NULL DEFAULT 0
 );
+
+-- tables created before the optimistic versioning of City.hbm.xml, hbm2ddl cannot add a NOT NULL column to their rows
+ALTER TABLE cities ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- ids are handed out in blocks of 50 by the pooled sequence generator in City.hbm.xml
+CREATE SEQUENCE IF NOT EXISTS cities_id_seq;
+ALTER SEQUENCE cities_id_seq INCREMENT BY 50;
+
+CREATE INDEX IF NOT EXISTS idx_cities_population ON cities (population);
+CREATE INDEX IF NOT EXISTS idx_cities_timezone ON cities (timezone);
+CREATE INDEX IF NOT EXISTS idx_cities_creation_date ON cities (creation_date);
+CREATE INDEX IF NOT EXISTS idx_cities_establishment_date ON cities (establishment_date);
+
+-- nearest-neighbour (<->) and containment (<@) searches over point(x, y), built into PostgreSQL without an extension
+CREATE INDEX IF NOT EXISTS idx_cities_location ON cities USING gist (point(x, y));
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_cities_name_trgm ON cities USING gin (lower(name) gin_trgm_ops);
+CREATE INDEX IF NOT EXISTS idx_cities_governor_name_trgm ON cities USING gin (lower(governor_name) gin_trgm_ops);
+
+-- change events are written here in the same transaction as the city and relayed to the clients after commit
+CREATE TABLE IF NOT EXISTS city_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    type VARCHAR(32) NOT NULL,
+    city_id BIGINT,
+    origin VARCHAR(36) NOT NULL,
+    payload TEXT,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    xid BIGINT NOT NULL DEFAULT pg_current_xact_id()::text::bigint
+);
+
+-- the writing transaction, so a node seeded from a snapshot can tell which relayed changes that snapshot already holds
+ALTER TABLE city_outbox ADD COLUMN IF NOT EXISTS xid BIGINT NOT NULL DEFAULT pg_current_xact_id()::text::bigint;
@@ -0,0 +1,83 @@
+package com.example.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BoundedCacheTest {
+
+    @Test
+    void hitDoesNotCallTheLoader() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test", 10, Duration.ofMinutes(1));
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("a", () -> "A" + loads.incrementAndGet());
+        String value = cache.get("a", () -> "A" + loads.incrementAndGet());
+
+        assertEquals("A1", value);
+        assertEquals(1, loads.get());
+        assertEquals(1L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test", 2, Duration.ofMinutes(1));
+        cache.get("a", () -> "A");
+        cache.get("b", () -> "B");
+        cache.get("a", () -> "unused");
+
+        cache.get("c", () -> "C");
+
+        assertEquals("A", cache.get("a", () -> "reloaded"));
+        assertEquals("reloaded", cache.get("b", () -> "reloaded"));
+        assertEquals(2, cache.stats().get("size"));
+    }
+
+    @Test
+    void expiredEntryIsLoadedAgain() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test", 10, Duration.ZERO);
+        cache.get("a", () -> "old");
+
+        assertEquals("new", cache.get("a", () -> "new"));
+        assertEquals(1L, cache.stats().get("evictions"));
+    }
+
+    @Test
+    void nullIsNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test", 10, Duration.ofMinutes(1));
+        assertNull(cache.get("a", () -> null));
+
+        assertEquals("A", cache.get("a", () -> "A"));
+    }
+
+    @Test
+    void invalidationDuringLoadDropsTheLoadedValue() {
+        BoundedCache<String, String> cache = new BoundedCache<>("test", 10, Duration.ofMinutes(1));
+
+        String stale = cache.get("a", () -> {
+            cache.invalidate("a");
+            return "stale";
+        });
+
+        assertEquals("stale", stale);
+        assertEquals("fresh", cache.get("a", () -> "fresh"));
+    }
+
+    @Test
+    void invalidateIfRemovesOnlyMatchingEntries() {
+        BoundedCache<String, Integer> cache = new BoundedCache<>("test", 10, Duration.ofMinutes(1));
+        cache.get("one", () -> 1);
+        cache.get("two", () -> 2);
+
+        cache.invalidateIf((key, value) -> value % 2 == 0);
+
+        assertEquals(1, cache.get("one", () -> -1));
+        assertEquals(-2, cache.get("two", () -> -2));
+        assertEquals(1L, cache.stats().get("invalidations"));
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.repository;
+
+import com.example.model.City;
+import com.example.model.Government;
+import com.example.model.Human;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CityFilterTest {
+
+    @Test
+    void rangeConditionsIncludeTheirBounds() {
+        CityFilter filter = filter("population.min", "100", "population.max", "200");
+
+        assertTrue(filter.matches(city("Oslo", 100L)));
+        assertTrue(filter.matches(city("Oslo", 200L)));
+        assertFalse(filter.matches(city("Oslo", 201L)));
+    }
+
+    @Test
+    void textConditionsIgnoreCase() {
+        assertTrue(filter("name.like", "SLO").matches(city("Oslo", 1L)));
+        assertTrue(filter("governor.search", "ann  SMITH").matches(city("Oslo", 1L)));
+        assertFalse(filter("governor.search", "ann jones").matches(city("Oslo", 1L)));
+    }
+
+    @Test
+    void inConditionMatchesAnyValue() {
+        CityFilter filter = filter("government.in", "noocracy,patriarchy");
+
+        assertTrue(filter.matches(city("Oslo", 1L)));
+    }
+
+    @Test
+    void missingValueNeverMatches() {
+        assertFalse(filter("carCode.max", "10").matches(city("Oslo", 1L)));
+        assertTrue(filter().matches(city("Oslo", 1L)));
+    }
+
+    @Test
+    void legacyDatePrefixCoversTheWholeYear() {
+        CityFilter filter = filter("establishmentDateFilter", "1900");
+        City city = city("Oslo", 1L);
+
+        city.setEstablishmentDate(LocalDate.of(1900, 12, 31));
+        assertTrue(filter.matches(city));
+        city.setEstablishmentDate(LocalDate.of(1901, 1, 1));
+        assertFalse(filter.matches(city));
+    }
+
+    @Test
+    void unknownFieldOrOperatorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> filter("mayor.eq", "x"));
+        assertThrows(IllegalArgumentException.class, () -> filter("population.between", "1"));
+        assertThrows(IllegalArgumentException.class, () -> filter("population.like", "1"));
+    }
+
+    @Test
+    void inValuesAreSplitAndParsed() {
+        CityFilter.Condition condition = filter("timezone.in", "1, ,3").getConditions().get(0);
+
+        assertEquals(CityField.TIMEZONE, condition.getField());
+        assertEquals(CityFilter.Operator.IN, condition.getOperator());
+        assertEquals(List.of(1, 3), condition.getValues());
+    }
+
+    @Test
+    void legacyGovernmentFilterMatchesPartOfTheName() {
+        CityFilter.Condition condition = filter("governmentFilter", "archy").getConditions().get(0);
+
+        assertEquals(CityFilter.Operator.IN, condition.getOperator());
+        assertEquals(List.of(Government.MATRIARCHY, Government.PATRIARCHY), condition.getValues());
+    }
+
+    @Test
+    void parameterOrderDoesNotChangeTheStatement() {
+        CityFilter first = filter("timezone.max", "3", "name.like", "os", "population.min", "10", "timezone.min", "1");
+        CityFilter second = filter("timezone.min", "1", "population.min", "10", "timezone.max", "3", "name.like", "os");
+
+        StringBuilder firstHql = new StringBuilder();
+        Map<String, Object> firstParams = new HashMap<>();
+        first.appendTo(firstHql, firstParams);
+        StringBuilder secondHql = new StringBuilder();
+        Map<String, Object> secondParams = new HashMap<>();
+        second.appendTo(secondHql, secondParams);
+
+        assertEquals(firstHql.toString(), secondHql.toString());
+        assertEquals(firstParams, secondParams);
+        assertEquals(first.toParams(), second.toParams());
+        assertEquals(CityField.NAME, first.getConditions().get(0).getField());
+        assertEquals(CityFilter.Operator.MIN, first.getConditions().get(2).getOperator());
+    }
+
+    @Test
+    void searchTermsAreEscaped() {
+        StringBuilder sql = new StringBuilder();
+        Map<String, Object> params = new HashMap<>();
+
+        filter("name.search", "50%  a_b").appendColumnsTo(sql, params);
+
+        assertEquals(" AND LOWER(name) LIKE :f0 ESCAPE '!' AND LOWER(name) LIKE :f1 ESCAPE '!'", sql.toString());
+        assertEquals(Map.of("f0", "%50!%%", "f1", "%a!_b%"), params);
+    }
+
+    @Test
+    void searchTermsArePaddedToAPowerOfTwo() {
+        StringBuilder hql = new StringBuilder();
+        Map<String, Object> params = new HashMap<>();
+
+        filter("name.search", "a b c").appendTo(hql, params);
+
+        assertEquals(4, hql.toString().split("LIKE").length - 1);
+        assertEquals("%c%", params.get("f3"));
+        assertEquals(filter("name.search", "d e f g").getShape(), filter("name.search", "a b c").getShape());
+        assertNotEquals(filter("name.search", "a b").getShape(), filter("name.search", "a b c").getShape());
+    }
+
+    @Test
+    void tooManySearchTermsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> filter("name.search", "a b c d e f g h i"));
+    }
+
+    @Test
+    void bindingAloneGivesTheParametersOfTheRenderedStatement() {
+        CityFilter filter = filter("name.search", "a b c", "government.in", "noocracy", "capital.eq", "true",
+                "carCode.max", "10");
+        Map<String, Object> rendered = new HashMap<>();
+        filter.appendTo(new StringBuilder(), rendered);
+        Map<String, Object> bound = new HashMap<>();
+
+        filter.bindTo(bound);
+
+        assertEquals(rendered, bound);
+    }
+
+    static CityFilter filter(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return CityFilter.fromParams(params);
+    }
+
+    static City city(String name, Long population) {
+        City city = new City();
+        city.setId(1L);
+        city.setName(name);
+        city.setPopulation(population);
+        city.setGovernment(Government.NOOCRACY);
+        city.setGovernor(new Human("Ann Smith"));
+        return city;
+    }
+}
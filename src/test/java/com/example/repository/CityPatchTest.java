@@ -0,0 +1,101 @@
+package com.example.repository;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.model.Government;
+import com.example.model.Human;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CityPatchTest {
+
+    @Test
+    void bodyAcceptsFieldKeysAndNestedObjects() {
+        CityPatch patch = CityPatch.fromBody(Map.of(
+                "id", 7,
+                "version", 3,
+                "population", 5,
+                "coordinates", Map.of("x", 10),
+                "governor", Map.of("name", "Ann")));
+
+        assertEquals(3L, patch.getVersion());
+        assertEquals(Map.of(CityField.POPULATION, 5L, CityField.COORDINATES_X, 10L, CityField.GOVERNOR, "Ann"),
+                patch.getChanges());
+    }
+
+    @Test
+    void invalidChangesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> CityPatch.fromBody(Map.of("mayor", "Ann")));
+        assertThrows(IllegalArgumentException.class, () -> CityPatch.fromBody(Map.of("population", "many")));
+        assertThrows(IllegalArgumentException.class, () -> new CityPatch().set(CityField.ID, 1L));
+        assertThrows(IllegalArgumentException.class, () -> new CityPatch().set(CityField.NAME, null));
+    }
+
+    @Test
+    void applyToChangesOnlyThePatchedFields() {
+        City city = city();
+
+        City patched = new CityPatch()
+                .set(CityField.POPULATION, 5L)
+                .set(CityField.CAR_CODE, null)
+                .applyTo(city);
+
+        assertEquals(5L, patched.getPopulation());
+        assertNull(patched.getCarCode());
+        assertEquals("Oslo", patched.getName());
+        assertEquals(10L, patched.getCoordinates().getX());
+        assertEquals(Government.NOOCRACY, patched.getGovernment());
+        assertEquals(1000L, city.getPopulation());
+    }
+
+    @Test
+    void columnsBindEnumsByNameAndWriteNullsLiterally() {
+        StringBuilder sql = new StringBuilder();
+        Map<String, Object> params = new HashMap<>();
+
+        new CityPatch()
+                .set(CityField.GOVERNMENT, Government.PATRIARCHY)
+                .set(CityField.CAR_CODE, null)
+                .set(CityField.POPULATION, 5L)
+                .appendColumnsTo(sql, params);
+
+        assertEquals("population = :population, car_code = NULL, government = :government, ", sql.toString());
+        assertEquals(Map.of("population", 5L, "government", "PATRIARCHY"), params);
+    }
+
+    @Test
+    void fullUpdateLeavesAMissingCreationDateAlone() {
+        City city = city();
+        city.setCreationDate(null);
+
+        CityPatch patch = CityPatch.of(city);
+
+        assertFalse(patch.getChanges().containsKey(CityField.CREATION_DATE));
+        assertFalse(patch.getChanges().containsKey(CityField.ID));
+        assertEquals(4L, patch.getVersion());
+    }
+
+    private static City city() {
+        City city = new City();
+        city.setId(1L);
+        city.setName("Oslo");
+        city.setCoordinates(new Coordinates(10L, 20L));
+        city.setCreationDate(LocalDate.of(2020, 1, 1));
+        city.setArea(5.0);
+        city.setPopulation(1000L);
+        city.setTimezone(1);
+        city.setCarCode(7);
+        city.setGovernment(Government.NOOCRACY);
+        city.setGovernor(new Human("Ann"));
+        city.setVersion(4L);
+        return city;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class CityRepositoryTest {
+
+    @Test
+    void idSeekComparesOnlyTheId() {
+        assertSeek(" AND c.id < :afterId", Map.of("afterId", 7L), CityField.ID, true, 7L, 7L);
+    }
+
+    @Test
+    void seekBreaksTiesOnTheId() {
+        assertSeek(" AND (c.population > :afterValue OR (c.population = :afterValue AND c.id > :afterId))",
+                Map.of("afterId", 7L, "afterValue", 100L), CityField.POPULATION, false, 100L, 7L);
+    }
+
+    @Test
+    void ascendingSeekOnNullableFieldKeepsTheNullsThatSortLast() {
+        LocalDate date = LocalDate.of(1900, 1, 1);
+        assertSeek(" AND (c.establishmentDate > :afterValue OR (c.establishmentDate = :afterValue"
+                        + " AND c.id > :afterId) OR c.establishmentDate IS NULL)",
+                Map.of("afterId", 7L, "afterValue", date), CityField.ESTABLISHMENT_DATE, false, date, 7L);
+    }
+
+    @Test
+    void descendingSeekOnNullableFieldSkipsTheNullsThatSortFirst() {
+        LocalDate date = LocalDate.of(1900, 1, 1);
+        assertSeek(" AND (c.establishmentDate < :afterValue OR (c.establishmentDate = :afterValue"
+                        + " AND c.id < :afterId))",
+                Map.of("afterId", 7L, "afterValue", date), CityField.ESTABLISHMENT_DATE, true, date, 7L);
+    }
+
+    @Test
+    void ascendingSeekAfterNullStaysWithinTheNulls() {
+        assertSeek(" AND c.carCode IS NULL AND c.id > :afterId",
+                Map.of("afterId", 7L), CityField.CAR_CODE, false, null, 7L);
+    }
+
+    @Test
+    void descendingSeekAfterNullMovesOnToTheValues() {
+        assertSeek(" AND ((c.carCode IS NULL AND c.id < :afterId) OR c.carCode IS NOT NULL)",
+                Map.of("afterId", 7L), CityField.CAR_CODE, true, null, 7L);
+    }
+
+    @Test
+    void statementIsRenderedOncePerShape() {
+        CityRepository repository = new CityRepository(null);
+        Map<String, Object> first = new HashMap<>();
+        Map<String, Object> second = new HashMap<>();
+
+        String hql = repository.statement("", CityFilterTest.filter("name.search", "ab cd", "population.min", "1"),
+                null, "relevance", "asc", first);
+        String cached = repository.statement("", CityFilterTest.filter("population.min", "2", "name.search", "ef gh"),
+                null, "relevance", "asc", second);
+
+        assertSame(hql, cached);
+        assertEquals(Map.of("f0", "%ab%", "f1", "%cd%", "f2", 1L, "r3", "ab cd"), first);
+        assertEquals(Map.of("f0", "%ef%", "f1", "%gh%", "f2", 2L, "r3", "ef gh"), second);
+    }
+
+    @Test
+    void seekIsPartOfTheStatementShape() {
+        CityRepository repository = new CityRepository(null);
+        CityFilter filter = CityFilterTest.filter("timezone.eq", "3");
+        Map<String, Object> params = new HashMap<>();
+
+        String afterValue = repository.statement("", filter,
+                new CityRepository.Seek(CityField.CAR_CODE, false, 100, 7L), "carCode", "asc", params);
+        String afterNull = repository.statement("", filter,
+                new CityRepository.Seek(CityField.CAR_CODE, false, null, 7L), "carCode", "asc", new HashMap<>());
+
+        assertNotSame(afterValue, afterNull);
+        assertEquals(Map.of("f0", 3, "afterId", 7L, "afterValue", 100), params);
+    }
+
+    private static void assertSeek(String expectedHql, Map<String, Object> expectedParams, CityField field,
+                                   boolean descending, Object lastValue, Long afterId) {
+        StringBuilder hql = new StringBuilder();
+        Map<String, Object> params = new HashMap<>();
+
+        CityRepository.appendSeek(hql, params, field, descending, lastValue, afterId);
+
+        assertEquals(expectedHql, hql.toString());
+        assertEquals(expectedParams, params);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.repository;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionSnapshotTest {
+
+    @Test
+    void transactionsBeforeXminAreIncluded() {
+        assertTrue(TransactionSnapshot.parse("100:105:").includes(99));
+    }
+
+    @Test
+    void transactionsInProgressAreNotIncluded() {
+        TransactionSnapshot snapshot = TransactionSnapshot.parse("100:105:100,102");
+
+        assertFalse(snapshot.includes(100));
+        assertTrue(snapshot.includes(101));
+        assertFalse(snapshot.includes(102));
+    }
+
+    @Test
+    void transactionsFromXmaxOnAreNotIncluded() {
+        assertFalse(TransactionSnapshot.parse("100:105:").includes(105));
+    }
+
+    @Test
+    void malformedSnapshotIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> TransactionSnapshot.parse("100"));
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.repository.CityRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CityAggregateStoreTest {
+    private StubRepository repository;
+    private CityAggregateStore store;
+
+    @BeforeEach
+    void setUp() {
+        repository = new StubRepository();
+        repository.totals = new Object[]{10L, 2L, 300L, "50:60:55"};
+        repository.mostPopulated = city(1L, 1_000L, LocalDate.of(1900, 1, 1), 3, 4);
+        repository.newest = repository.mostPopulated;
+        store = new CityAggregateStore(repository);
+        store.seed();
+    }
+
+    @Test
+    void addedCityIsCountedOnce() {
+        City city = city(2L, 10L, null, 0, 0);
+        city.setTimezone(5);
+        city.setCarCode(100);
+
+        store.onAdded(city, 60L);
+
+        assertEquals(15.0, store.getSumOfTimezones());
+        assertEquals(400.0 / 3, store.getAverageCarCode(), 1e-9);
+    }
+
+    @Test
+    void updateReplacesThePreviousContribution() {
+        City previous = city(2L, 10L, null, 0, 0);
+        previous.setTimezone(5);
+        City current = city(2L, 10L, null, 0, 0);
+        current.setTimezone(-3);
+
+        store.onAdded(previous, 60L);
+        store.onUpdated(previous, current, 61L);
+
+        assertEquals(7.0, store.getSumOfTimezones());
+    }
+
+    @Test
+    void morePopulatedCityTakesTheLeadWithoutReload() {
+        store.onAdded(city(2L, 2_000L, null, 6, 8), 60L);
+
+        assertEquals(10.0, store.getDistanceToMostPopulated());
+        assertEquals(1, repository.mostPopulatedLoads);
+    }
+
+    @Test
+    void equalPopulationKeepsTheLowerId() {
+        store.onAdded(city(2L, 1_000L, null, 6, 8), 60L);
+
+        assertEquals(5.0, store.getDistanceToMostPopulated());
+    }
+
+    @Test
+    void shrinkingLeaderIsReloaded() {
+        repository.mostPopulated = city(3L, 900L, null, 0, 0);
+
+        store.onUpdated(null, city(1L, 100L, null, 3, 4), 60L);
+
+        assertEquals(0.0, store.getDistanceToMostPopulated());
+        assertEquals(2, repository.mostPopulatedLoads);
+    }
+
+    @Test
+    void deletedLeaderIsReloaded() {
+        repository.newest = city(3L, 10L, LocalDate.of(1800, 1, 1), 6, 8);
+
+        store.onDeleted(city(1L, 1_000L, LocalDate.of(1900, 1, 1), 3, 4), 60L);
+
+        assertEquals(10.0, store.getDistanceToNewest());
+    }
+
+    @Test
+    void invalidatedStoreIsReseeded() {
+        repository.totals = new Object[]{-4L, 0L, 0L, "70:70:"};
+
+        store.invalidate();
+
+        assertEquals(-4.0, store.getSumOfTimezones());
+        assertEquals(0.0, store.getAverageCarCode());
+    }
+
+    @Test
+    void changeCommittedBeforeTheSeedIsNotCountedAgain() {
+        City city = city(2L, 10L, null, 0, 0);
+        city.setTimezone(5);
+
+        store.onAdded(city, 49L);
+        store.onAdded(city, 56L);
+
+        assertEquals(10.0, store.getSumOfTimezones());
+    }
+
+    @Test
+    void changeInProgressDuringTheSeedIsApplied() {
+        City city = city(2L, 10L, null, 0, 0);
+        city.setTimezone(5);
+
+        store.onAdded(city, 55L);
+
+        assertEquals(15.0, store.getSumOfTimezones());
+    }
+
+    @Test
+    void changeOfUnknownTransactionReseeds() {
+        City city = city(2L, 10L, null, 0, 0);
+        city.setTimezone(5);
+        repository.totals = new Object[]{12L, 2L, 300L, "70:70:"};
+
+        store.onAdded(city, null);
+
+        assertEquals(12.0, store.getSumOfTimezones());
+    }
+
+    @Test
+    void changeArrivingDuringTheSeedLoadIsReplayed() {
+        City committed = city(2L, 10L, null, 0, 0);
+        committed.setTimezone(5);
+        City inProgress = city(3L, 3_000L, null, 6, 8);
+        inProgress.setTimezone(7);
+        repository.totals = new Object[]{20L, 2L, 300L, "70:72:71"};
+        repository.duringLoad = () -> {
+            store.onAdded(committed, 70L);
+            store.onAdded(inProgress, 71L);
+        };
+
+        store.invalidate();
+
+        assertEquals(27.0, store.getSumOfTimezones());
+        assertEquals(10.0, store.getDistanceToMostPopulated());
+    }
+
+    private static City city(Long id, Long population, LocalDate establishmentDate, long x, long y) {
+        City city = new City();
+        city.setId(id);
+        city.setPopulation(population);
+        city.setEstablishmentDate(establishmentDate);
+        city.setCoordinates(new Coordinates(x, y));
+        return city;
+    }
+
+    static final class StubRepository extends CityRepository {
+        Object[] totals = {0L, 0L, 0L, "10:10:"};
+        City mostPopulated;
+        City newest;
+        int mostPopulatedLoads;
+        Runnable duringLoad = () -> {
+        };
+
+        StubRepository() {
+            super(null);
+        }
+
+        @Override
+        public Object[] getTimezoneAndCarCodeTotals() {
+            return totals;
+        }
+
+        @Override
+        public City findMostPopulated() {
+            mostPopulatedLoads++;
+            duringLoad.run();
+            return mostPopulated;
+        }
+
+        @Override
+        public City findNewest() {
+            return newest;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.service;
+
+import com.example.event.CityChangeEvent;
+import com.example.event.InProcessCityEventBus;
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.websocket.CityWebSocketHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CityChangeDispatcherTest {
+    private final InProcessCityEventBus eventBus = new InProcessCityEventBus();
+    private final CityWebSocketHandler webSocketHandler = new CityWebSocketHandler();
+    private CityAggregateStore aggregateStore;
+
+    @BeforeEach
+    void setUp() {
+        aggregateStore = new CityAggregateStore(new CityAggregateStoreTest.StubRepository());
+        aggregateStore.seed();
+        new CityChangeDispatcher(eventBus, webSocketHandler, aggregateStore, new CityCache());
+    }
+
+    @AfterEach
+    void tearDown() {
+        webSocketHandler.destroy();
+    }
+
+    @Test
+    void additionOfAnotherNodeIsApplied() {
+        eventBus.publish(added("another-node"));
+
+        assertEquals(5.0, aggregateStore.getSumOfTimezones());
+    }
+
+    @Test
+    void additionOfThisNodeRelayedElsewhereIsNotAppliedAgain() {
+        // this node's write has already updated the aggregates, the event only has to reach the clients
+        eventBus.publish(added(CityChangeEvent.LOCAL_NODE));
+
+        assertEquals(0.0, aggregateStore.getSumOfTimezones());
+    }
+
+    @Test
+    void additionAlreadyInTheSeedIsNotAppliedAgain() {
+        // an outbox entry left over from before a restart carries the old node id and a transaction the seed has seen
+        eventBus.publish(added("previous-run", 7L));
+
+        assertEquals(0.0, aggregateStore.getSumOfTimezones());
+    }
+
+    private static CityChangeEvent added(String origin) {
+        return added(origin, 42L);
+    }
+
+    private static CityChangeEvent added(String origin, long xid) {
+        City city = new City();
+        city.setId(1L);
+        city.setPopulation(100L);
+        city.setTimezone(5);
+        city.setCoordinates(new Coordinates(3L, 4L));
+        return new CityChangeEvent(CityChangeEvent.CITY_ADDED, 1L, null, city, null, origin, xid);
+    }
+}
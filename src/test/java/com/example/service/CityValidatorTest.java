@@ -0,0 +1,63 @@
+package com.example.service;
+
+import com.example.model.City;
+import com.example.model.Coordinates;
+import com.example.model.Government;
+import com.example.model.Human;
+import com.example.repository.CityField;
+import com.example.repository.CityPatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CityValidatorTest {
+
+    @Test
+    void validCityPasses() {
+        assertNull(CityValidator.validate(city()));
+    }
+
+    @Test
+    void cityWithoutCoordinatesIsRejected() {
+        City city = city();
+        city.setCoordinates(null);
+
+        assertEquals("Coordinates are required", CityValidator.validate(city));
+    }
+
+    @Test
+    void patchIsCheckedOnlyOnTheFieldsItSets() {
+        assertNull(CityValidator.validate(CityPatch.fromBody(Map.of("population", 5, "carCode", 1000))));
+        assertNull(CityValidator.validate(new CityPatch().set(CityField.CAR_CODE, null)));
+    }
+
+    @Test
+    void patchWithBlankTextIsRejected() {
+        assertEquals("City name is required", CityValidator.validate(CityPatch.fromBody(Map.of("name", "  "))));
+        assertEquals("Governor name is required",
+                CityValidator.validate(CityPatch.fromBody(Map.of("governor", Map.of("name", "")))));
+    }
+
+    @Test
+    void patchOutOfRangeIsRejected() {
+        assertEquals("Timezone must be between -13 and 15",
+                CityValidator.validate(CityPatch.fromBody(Map.of("timezone", 16))));
+        assertEquals("X coordinate must be ≤ 913",
+                CityValidator.validate(CityPatch.fromBody(Map.of("coordinates", Map.of("x", 914)))));
+    }
+
+    private static City city() {
+        City city = new City();
+        city.setName("Oslo");
+        city.setPopulation(10L);
+        city.setArea(1.5);
+        city.setCoordinates(new Coordinates(1L, 1L));
+        city.setTimezone(1);
+        city.setGovernment(Government.NOOCRACY);
+        city.setGovernor(new Human("Ann Smith"));
+        return city;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.websocket;
+
+import com.example.model.City;
+import com.example.model.Government;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CityWebSocketHandlerTest {
+    private final CityWebSocketHandler handler = new CityWebSocketHandler();
+
+    @AfterEach
+    void tearDown() {
+        handler.destroy();
+    }
+
+    @Test
+    void changeReachesOnlyMatchingSubscriptions() throws Exception {
+        RecordingSession noocracy = connect("a", "NOOCRACY");
+        RecordingSession patriarchy = connect("b", "PATRIARCHY");
+
+        handler.broadcastCityChange("CITY_UPDATED", 1L, city(Government.NOOCRACY), city(Government.NOOCRACY));
+        handler.broadcastUpdate("CITIES_IMPORTED", Map.of("imported", 1));
+
+        assertTrue(noocracy.nextBatchUntil("CITIES_IMPORTED").contains("CITY_UPDATED"));
+        assertFalse(patriarchy.nextBatchUntil("CITIES_IMPORTED").contains("CITY_UPDATED"));
+    }
+
+    @Test
+    void deletionWithoutStateReachesFilteredSubscriptions() throws Exception {
+        RecordingSession session = connect("a", "NOOCRACY");
+
+        handler.broadcastCityChange("CITY_DELETED", 1L, null, null);
+
+        assertTrue(session.nextBatchUntil("CITY_DELETED").contains("\"id\":1"));
+    }
+
+    @Test
+    void updateWithoutPreviousStateReachesTheSubscriptionTheCityLeft() throws Exception {
+        RecordingSession session = connect("a", "NOOCRACY");
+
+        handler.broadcastCityChange("CITY_UPDATED", 1L, null, city(Government.PATRIARCHY));
+
+        assertTrue(session.nextBatchUntil("CITY_UPDATED").contains("PATRIARCHY"));
+    }
+
+    private RecordingSession connect(String id, String government) throws Exception {
+        RecordingSession session = new RecordingSession(id);
+        handler.afterConnectionEstablished(session);
+        handler.handleTextMessage(session, new TextMessage(
+                "{\"type\":\"SUBSCRIBE\",\"filters\":{\"government.eq\":\"" + government + "\"}}"));
+        return session;
+    }
+
+    private static City city(Government government) {
+        City city = new City();
+        city.setId(1L);
+        city.setName("Oslo");
+        city.setGovernment(government);
+        return city;
+    }
+
+    private static final class RecordingSession implements WebSocketSession {
+        private final String id;
+        private final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+
+        private RecordingSession(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Every BATCH frame received until one containing the marker, joined.
+         */
+        String nextBatchUntil(String marker) throws InterruptedException {
+            List<String> batches = new ArrayList<>();
+            while (true) {
+                String frame = frames.poll(5, TimeUnit.SECONDS);
+                assertNotNull(frame, "no frame containing " + marker);
+                if (frame.startsWith("{\"type\":\"BATCH\"")) {
+                    batches.add(frame);
+                    if (frame.contains(marker)) {
+                        return String.join("\n", batches);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) {
+            frames.add(((TextMessage) message).getPayload());
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public URI getUri() {
+            return null;
+        }
+
+        @Override
+        public HttpHeaders getHandshakeHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public String getAcceptedProtocol() {
+            return null;
+        }
+
+        @Override
+        public void setTextMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getTextMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public void setBinaryMessageSizeLimit(int messageSizeLimit) {
+        }
+
+        @Override
+        public int getBinaryMessageSizeLimit() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public List<WebSocketExtension> getExtensions() {
+            return List.of();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void close(CloseStatus status) {
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.websocket;
+
+import com.example.model.City;
+import com.example.model.Government;
+import com.example.repository.CityFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SubscriptionIndexTest {
+    private final SubscriptionIndex index = new SubscriptionIndex();
+
+    @Test
+    void sessionsWithTheSameFilterShareAGroup() {
+        index.subscribe("a", filter("government.eq", "NOOCRACY"));
+        index.subscribe("b", filter("government.eq", "noocracy"));
+
+        assertEquals(1, index.groupCount());
+        assertEquals(Set.of("a", "b"), sessions(index.match(null, city(Government.NOOCRACY, 10L))));
+    }
+
+    @Test
+    void eventReachesOnlyMatchingGroups() {
+        index.subscribe("noocracy", filter("government.eq", "NOOCRACY"));
+        index.subscribe("patriarchy", filter("government.in", "PATRIARCHY,MATRIARCHY"));
+        index.subscribe("large", filter("population.min", "1000"));
+        index.subscribe("everything", filter());
+
+        assertEquals(Set.of("noocracy", "everything"), sessions(index.match(null, city(Government.NOOCRACY, 10L))));
+        assertEquals(Set.of("patriarchy", "large", "everything"),
+                sessions(index.match(null, city(Government.MATRIARCHY, 5000L))));
+    }
+
+    @Test
+    void updateReachesGroupsTheCityLeaves() {
+        index.subscribe("noocracy", filter("government.eq", "NOOCRACY"));
+        index.subscribe("patriarchy", filter("government.eq", "PATRIARCHY"));
+
+        Set<String> sessions = sessions(index.match(city(Government.NOOCRACY, 10L), city(Government.PATRIARCHY, 10L)));
+
+        assertEquals(Set.of("noocracy", "patriarchy"), sessions);
+    }
+
+    @Test
+    void resubscribingMovesTheSessionAndDropsEmptyGroups() {
+        index.subscribe("a", filter("government.eq", "NOOCRACY"));
+        index.subscribe("a", filter("population.min", "1000"));
+
+        assertEquals(1, index.groupCount());
+        assertEquals(Set.of(), sessions(index.match(null, city(Government.NOOCRACY, 10L))));
+
+        index.unsubscribe("a");
+
+        assertEquals(0, index.groupCount());
+        assertEquals(Set.of(), sessions(index.match(null, city(Government.NOOCRACY, 5000L))));
+    }
+
+    private Set<String> sessions(Set<SubscriptionIndex.Group> groups) {
+        Set<String> sessions = new TreeSet<>();
+        for (SubscriptionIndex.Group group : groups) {
+            sessions.addAll(index.sessionsOf(group));
+        }
+        return sessions;
+    }
+
+    private static CityFilter filter(String... keysAndValues) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            params.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return CityFilter.fromParams(params);
+    }
+
+    private static City city(Government government, Long population) {
+        City city = new City();
+        city.setId(1L);
+        city.setGovernment(government);
+        city.setPopulation(population);
+        return city;
+    }
+}